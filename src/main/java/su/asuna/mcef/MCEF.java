@@ -6,10 +6,15 @@ import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import su.asuna.mcef.cef.*;
+import su.asuna.mcef.listeners.MCEFFrameSink;
+import su.asuna.mcef.utils.BufferPool;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * An API to create Chromium web browsers in Minecraft. Uses
@@ -25,12 +30,45 @@ public enum MCEF {
     private @Nullable MCEFApp app;
     private @Nullable MCEFClient client;
     private @Nullable MCEFDownloadManager resourceManager;
+    private @Nullable ScheduledExecutorService scheduler;
+    private @Nullable ExecutorService headlessExecutor;
+    private final MCEFFrameRateGovernor frameRateGovernor = new MCEFFrameRateGovernor();
+    private final MCEFTexturePool texturePool = new MCEFTexturePool();
+    private final MCEFSharedBrowsers sharedBrowsers = new MCEFSharedBrowsers();
+    private final MCEFUploadScheduler uploadScheduler = new MCEFUploadScheduler();
+    private final MCEFFrameReadback frameReadback = new MCEFFrameReadback();
+    private @Nullable MCEFUploadWorker uploadWorker;
+    private boolean uploadWorkerCreated = false;
 
     public Logger getLogger() {
         return LOGGER;
     }
 
-    public static final Minecraft mc = Minecraft.getInstance();
+    /**
+     * The client, or null if MCEF runs without Minecraft's client classes, see {@link #createHeadlessBrowser}.
+     *
+     * @deprecated Use {@link #mc()}, which does not need the client classes until it is called
+     */
+    @Deprecated
+    public static final @Nullable Minecraft mc = findClient();
+
+    /**
+     * Gets the client. Looked up on use, so that headless browsers can run without Minecraft's client classes.
+     *
+     * @return the {@link Minecraft} client instance
+     */
+    public static Minecraft mc() {
+        return Minecraft.getInstance();
+    }
+
+    private static @Nullable Minecraft findClient() {
+        try {
+            return Minecraft.getInstance();
+        } catch (LinkageError e) {
+            // Headless, the client classes are not on the classpath
+            return null;
+        }
+    }
 
     /**
      * Get access to various settings for MCEF.
@@ -104,6 +142,90 @@ public enum MCEF {
         return resourceManager;
     }
 
+    /**
+     * Gets the background scheduler MCEF uses for periodic housekeeping. Tasks must not touch OpenGL;
+     * work that needs the render thread has to be handed over with {@code mc().schedule}.
+     *
+     * @return the shared scheduler, created on first use
+     */
+    public synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                var thread = new Thread(runnable, "MCEF-Scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Gets the thread headless browsers apply deferred work on, e.g. debounced resizes. They have no client
+     * thread, and the {@link #getScheduler() scheduler} only times such work.
+     *
+     * @return the shared executor, created on first use
+     */
+    public synchronized ExecutorService getHeadlessExecutor() {
+        if (headlessExecutor == null) {
+            headlessExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                var thread = new Thread(runnable, "MCEF-Headless");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return headlessExecutor;
+    }
+
+    /**
+     * Gets the governor that adapts the frame rate of every browser created through MCEF.
+     *
+     * @return the {@link MCEFFrameRateGovernor} instance
+     */
+    public MCEFFrameRateGovernor getFrameRateGovernor() {
+        return frameRateGovernor;
+    }
+
+    /**
+     * Gets the pool the software textures of all browsers are borrowed from.
+     *
+     * @return the {@link MCEFTexturePool} instance
+     */
+    public MCEFTexturePool getTexturePool() {
+        return texturePool;
+    }
+
+    /**
+     * Gets the scheduler that spreads the staged uploads of all browsers over frames.
+     *
+     * @return the {@link MCEFUploadScheduler} instance
+     */
+    public MCEFUploadScheduler getUploadScheduler() {
+        return uploadScheduler;
+    }
+
+    /**
+     * Gets the queue of asynchronous texture readbacks for browser captures.
+     *
+     * @return the {@link MCEFFrameReadback} instance
+     */
+    public MCEFFrameReadback getFrameReadback() {
+        return frameReadback;
+    }
+
+    /**
+     * Gets the worker that uploads staged frames on a shared context, creating it on first use.
+     * Must be called on the render thread.
+     *
+     * @return the {@link MCEFUploadWorker} instance, or null if it is not supported
+     */
+    public @Nullable MCEFUploadWorker getUploadWorker() {
+        if (!uploadWorkerCreated) {
+            uploadWorkerCreated = true;
+            uploadWorker = MCEFUploadWorker.create();
+        }
+        return uploadWorker;
+    }
+
     /**
      * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
      * Creates a new Chromium web browser with some starting URL. Can set it to be transparent rendering.
@@ -119,6 +241,28 @@ public enum MCEF {
         MCEFBrowser browser = new MCEFBrowser(client, url, transparent, browserSettings);
         browser.setCloseAllowed();
         browser.createImmediately();
+        frameRateGovernor.register(browser);
+        return browser;
+    }
+
+    /**
+     * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
+     * Creates a new Chromium web browser whose software paints are composed off-heap and handed to a sink,
+     * see {@link MCEFHeadlessRenderer}. The browser uses neither OpenGL nor the client, so it may be created
+     * on any thread, but its frame rate is not governed and accelerated paints are dropped.
+     *
+     * @return the {@link MCEFBrowser} web browser instance
+     */
+    public MCEFBrowser createHeadlessBrowser(String url, boolean transparent,
+                                             @Nullable MCEFBrowserSettings browserSettings, MCEFFrameSink sink) {
+        assertInitialized();
+        assert client != null;
+        if (browserSettings == null) {
+            browserSettings = new MCEFBrowserSettings(60, false);
+        }
+        MCEFBrowser browser = new MCEFBrowser(client, url, transparent, browserSettings, new MCEFHeadlessRenderer(sink));
+        browser.setCloseAllowed();
+        browser.createImmediately();
         return browser;
     }
 
@@ -136,6 +280,29 @@ public enum MCEF {
         return browser;
     }
 
+    /**
+     * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
+     * Gets a handle to a browser shared by every caller asking for the same URL and settings, see
+     * {@link MCEFSharedBrowsers} for how navigation affects sharing. Creates the browser on first use.
+     * The browser is closed when the last handle is closed.
+     *
+     * @return a new {@link MCEFBrowserHandle} to the shared browser
+     */
+    public MCEFBrowserHandle createSharedBrowser(String url, boolean transparent,
+                                                 @Nullable MCEFBrowserSettings browserSettings) {
+        assertInitialized();
+        return sharedBrowsers.acquire(url, transparent, browserSettings);
+    }
+
+    /**
+     * Gets the registry of browsers handed out by {@link #createSharedBrowser}.
+     *
+     * @return the {@link MCEFSharedBrowsers} instance
+     */
+    public MCEFSharedBrowsers getSharedBrowsers() {
+        return sharedBrowsers;
+    }
+
     /**
      * Check if MCEF is initialized.
      *
@@ -154,6 +321,24 @@ public enum MCEF {
             client = null;
             app = null;
         }
+
+        if (uploadWorker != null) {
+            uploadWorker.close();
+            uploadWorker = null;
+        }
+
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+            if (headlessExecutor != null) {
+                headlessExecutor.shutdownNow();
+                headlessExecutor = null;
+            }
+        }
+
+        BufferPool.trim();
     }
 
     /**
@@ -1,6 +1,6 @@
 package su.asuna.mcef.cef;
 
-import com.mojang.blaze3d.opengl.GlStateManager;
+import com.mojang.blaze3d.opengl.GlTexture;
 import net.minecraft.resources.Identifier;
 import org.cef.browser.CefBrowser;
 import org.cef.browser.CefBrowserOsr;
@@ -9,16 +9,27 @@ import org.cef.event.CefKeyEvent;
 import org.cef.event.CefMouseEvent;
 import org.cef.event.CefMouseWheelEvent;
 import org.cef.handler.CefAcceleratedPaintInfo;
+import org.cef.handler.CefScreenInfo;
 import org.cef.misc.CefCursorType;
+import org.jspecify.annotations.Nullable;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.system.MemoryUtil;
 import su.asuna.mcef.MCEF;
 import su.asuna.mcef.MCEFPlatform;
 import su.asuna.mcef.glfw.MCEFGlfwCursorHelper;
 import su.asuna.mcef.listeners.MCEFCursorChangeListener;
+import su.asuna.mcef.utils.BufferPool;
+import su.asuna.mcef.utils.PixelCopier;
+import su.asuna.mcef.utils.PixelUtils;
 
 import java.awt.*;
 import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
@@ -33,11 +44,22 @@ public class MCEFBrowser extends CefBrowserOsr {
     /**
      * The renderer for the browser.
      */
-    private final MCEFRenderer renderer;
+    private final MCEFBrowserRenderer renderer;
+    /**
+     * The same renderer if it uploads paints to a texture, null if the browser is headless.
+     */
+    private final @Nullable MCEFRenderer textureRenderer;
     /**
      * Stores information about drag & drop.
      */
     private final MCEFDragContext dragContext = new MCEFDragContext();
+    /**
+     * Decides how the dirty rectangles of software paints are uploaded.
+     */
+    private final MCEFPaintPlanner paintPlanner = new MCEFPaintPlanner();
+    private final MCEFPaintPlanner popupPaintPlanner = new MCEFPaintPlanner();
+    private final MCEFFrameDiffer frameDiffer = new MCEFFrameDiffer();
+    private final MCEFScrollDetector scrollDetector = new MCEFScrollDetector();
     /**
      * A listener that defines that happens when a cursor changes in the browser.
      * E.g. when you've hovered over a button, an input box, are selecting text, etc...
@@ -54,6 +76,42 @@ public class MCEFBrowser extends CefBrowserOsr {
      * CEF is a bit odd and implements mouse buttons as a part of modifier flags.
      */
     private int btnMask = 0;
+    /**
+     * Stages software paints for the render thread, null when paints are uploaded immediately.
+     */
+    private volatile @Nullable MCEFFrameMailbox frameMailbox;
+    private final AtomicBoolean frameConsumeScheduled = new AtomicBoolean();
+    private boolean persistentStaging = false;
+    /**
+     * Uploads staged paints on the {@link MCEFUploadWorker}, null when the render thread uploads them.
+     */
+    private volatile MCEFUploadWorker.@Nullable Job uploadJob;
+    private boolean uploadWorkerEnabled = false;
+    private final PixelCopier pixelCopier = new PixelCopier();
+    /**
+     * Captures waiting for the next paint, see {@link #capture(int, int, int, int)}.
+     */
+    private record CaptureRequest(int x, int y, int width, int height, CompletableFuture<MCEFFrameImage> future) {
+    }
+
+    private final Queue<CaptureRequest> captureRequests = new ConcurrentLinkedQueue<>();
+    /**
+     * Coalesces resizes, see {@link #resize(int, int)}.
+     */
+    public static final long RESIZE_DEBOUNCE_MS = 50;
+    private final Object resizeLock = new Object();
+    private int pendingWidth, pendingHeight;
+    private long lastResizeNanos = 0;
+    private @Nullable ScheduledFuture<?> pendingResize;
+    /**
+     * State sampled by the {@link MCEFFrameRateGovernor}.
+     */
+    private final int maxFrameRate;
+    private volatile int frameRateLimit = 0;
+    private volatile long paintCount = 0;
+    private volatile boolean focused = false;
+    private volatile boolean visible = true;
+    private volatile boolean occluded = false;
 
     // Data relating to popups and graphics
     // Marked as protected in-case a mod wants to extend MCEFBrowser and override the repaint logic
@@ -64,22 +122,69 @@ public class MCEFBrowser extends CefBrowserOsr {
     private long lastClickTime = 0;
     private int clicks;
     private int mouseButton;
+    private final CefMouseEvent mouseMoveEvent = new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, 0, 0, 0, 0, 0);
+    private final Point dragPoint = new Point();
+
+    public static final double MIN_RENDER_SCALE = 0.25;
+    public static final double MAX_RENDER_SCALE = 4.0;
+    private volatile double renderScale = 1.0;
+    private volatile double screenSize = 0;
 
     private final boolean isMacOs = MCEFPlatform.getPlatform().isMacOS();
     private final boolean isWindows = MCEFPlatform.getPlatform().isWindows();
 
     public MCEFBrowser(MCEFClient client, String url, boolean transparent, MCEFBrowserSettings browserSettings) {
+        this(client, url, transparent, browserSettings, new MCEFRenderer(transparent));
+    }
+
+    /**
+     * @param renderer receives the paints. An {@link MCEFRenderer} is initialized on the render thread, any other
+     *                 renderer makes the browser headless: it then touches neither the client nor OpenGL.
+     */
+    public MCEFBrowser(MCEFClient client, String url, boolean transparent, MCEFBrowserSettings browserSettings,
+                       MCEFBrowserRenderer renderer) {
         super(client.getHandle(), url, transparent, null, browserSettings);
-        renderer = new MCEFRenderer(transparent);
-        cursorChangeListener = (cefCursorID) -> setCursor(CefCursorType.fromId(cefCursorID));
+        maxFrameRate = browserSettings.windowless_frame_rate;
+        this.renderer = renderer;
 
-        mc.schedule(renderer::initialize);
+        if (renderer instanceof MCEFRenderer textureRenderer) {
+            this.textureRenderer = textureRenderer;
+            cursorChangeListener = (cefCursorID) -> setCursor(CefCursorType.fromId(cefCursorID));
+            mc().schedule(textureRenderer::initialize);
+        } else {
+            this.textureRenderer = null;
+            // Without a client window there is no cursor to change
+            cursorChangeListener = (cefCursorID) -> {
+            };
+        }
     }
 
+    /**
+     * @return the renderer uploading paints to a texture
+     * @throws IllegalStateException if the browser is headless, its renderer is {@link #getBrowserRenderer()}
+     */
     public MCEFRenderer getRenderer() {
+        var textureRenderer = this.textureRenderer;
+        if (textureRenderer == null) {
+            throw new IllegalStateException("Headless browsers have no texture renderer, use getBrowserRenderer()");
+        }
+        return textureRenderer;
+    }
+
+    /**
+     * @return the renderer receiving the paints, chosen when the browser was constructed
+     */
+    public MCEFBrowserRenderer getBrowserRenderer() {
         return renderer;
     }
 
+    /**
+     * @return true if paints are not uploaded to a texture, see {@link MCEFHeadlessRenderer}
+     */
+    public boolean isHeadless() {
+        return textureRenderer == null;
+    }
+
     /**
      * Convenience method to get the ResourceLocation for this browser's texture.
      * This can be used directly with GuiGraphics rendering methods.
@@ -87,7 +192,7 @@ public class MCEFBrowser extends CefBrowserOsr {
      * @return The ResourceLocation for this browser's texture, or null if not initialized
      */
     public Identifier getTextureLocation() {
-        return renderer != null ? renderer.getIdentifier() : null;
+        return textureRenderer != null ? textureRenderer.getIdentifier() : null;
     }
 
     /**
@@ -96,7 +201,7 @@ public class MCEFBrowser extends CefBrowserOsr {
      * @return true if the texture is initialized and ready to be rendered
      */
     public boolean isTextureReady() {
-        return renderer != null && renderer.isTextureReady();
+        return textureRenderer != null && textureRenderer.isTextureReady();
     }
 
     public MCEFCursorChangeListener getCursorChangeListener() {
@@ -111,6 +216,163 @@ public class MCEFBrowser extends CefBrowserOsr {
         return dragContext;
     }
 
+    /**
+     * Gets the planner used for software paints of the main view.
+     * {@link MCEFPaintPlanner#getLastStrategy()} reports how the last frame was uploaded.
+     *
+     * @return the paint planner of this browser
+     */
+    public MCEFPaintPlanner getPaintPlanner() {
+        return paintPlanner;
+    }
+
+    /**
+     * Gets the differ that shrinks the dirty rectangles of software paints of the main view to the pixels
+     * that changed. It is disabled by default.
+     *
+     * @return the frame differ of this browser
+     */
+    public MCEFFrameDiffer getFrameDiffer() {
+        return frameDiffer;
+    }
+
+    /**
+     * Gets the detector that moves the texture content of scrolled software paints on the GPU instead of
+     * uploading it again. It is disabled by default and only applies without a frame mailbox, to frames
+     * that are not tiled and while no popup is shown.
+     *
+     * @return the scroll detector of this browser
+     */
+    public MCEFScrollDetector getScrollDetector() {
+        return scrollDetector;
+    }
+
+    /**
+     * @return the frame rate this browser was created with, the upper bound for the frame rate governor
+     */
+    public int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * @return the additional frame rate limit, or 0 if there is none
+     */
+    public int getFrameRateLimit() {
+        return frameRateLimit;
+    }
+
+    /**
+     * Limits the frame rate the {@link MCEFFrameRateGovernor} may apply to this browser below its maximum,
+     * e.g. for a level-of-detail tier. Takes effect with the governor's next evaluation.
+     *
+     * @param frameRateLimit the limit, or 0 to remove it
+     */
+    public void setFrameRateLimit(int frameRateLimit) {
+        if (this.frameRateLimit == frameRateLimit) return;
+        this.frameRateLimit = Math.max(0, frameRateLimit);
+        MCEF.INSTANCE.getFrameRateGovernor().reevaluate();
+    }
+
+    /**
+     * @return the frame rate the {@link MCEFFrameRateGovernor} currently applies to this browser
+     */
+    public int getFrameRate() {
+        return MCEF.INSTANCE.getFrameRateGovernor().getTargetFrameRate(this);
+    }
+
+    /**
+     * @return the number of paints CEF delivered to this browser so far
+     */
+    public long getPaintCount() {
+        return paintCount;
+    }
+
+    /**
+     * @return the copier staging this browser's paints, which reports their copy throughput
+     */
+    public PixelCopier getPixelCopier() {
+        return pixelCopier;
+    }
+
+    /**
+     * @return the size the browser was last reported to cover on screen, or 0 if it is unknown
+     */
+    public double getScreenSize() {
+        return screenSize;
+    }
+
+    /**
+     * Reports how large the browser appears on screen, e.g. the larger side of its projected bounds in pixels.
+     * The {@link MCEFUploadScheduler} uploads larger browsers first. Set by {@link MCEFLodController#update}.
+     *
+     * @param screenSize the size on screen in pixels, or 0 if it is unknown
+     */
+    public void setScreenSize(double screenSize) {
+        this.screenSize = Math.max(0, screenSize);
+    }
+
+    public boolean isFocused() {
+        return focused;
+    }
+
+    @Override
+    public void setFocus(boolean enable) {
+        super.setFocus(enable);
+        focused = enable;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Tells MCEF whether this browser is currently being drawn, e.g. whether its GUI is open or its
+     * in-world screen is within view. While it is not shown, CEF is throttled to a single frame per second
+     * by the {@link MCEFFrameRateGovernor} and paints of the main view are not uploaded to the texture.
+     * When it is shown again, a full repaint is requested immediately.
+     *
+     * @param visible false if the browser is not drawn right now
+     */
+    public void setVisible(boolean visible) {
+        var wasShown = isShown();
+        this.visible = visible;
+        onShownChanged(wasShown);
+    }
+
+    public boolean isOccluded() {
+        return occluded;
+    }
+
+    /**
+     * Like {@link #setVisible(boolean)}, for browsers that are visible in principle but currently covered,
+     * e.g. an in-world screen behind another GUI. Kept separate so that both states can be tracked independently.
+     *
+     * @param occluded true if the browser is covered right now
+     */
+    public void setOccluded(boolean occluded) {
+        var wasShown = isShown();
+        this.occluded = occluded;
+        onShownChanged(wasShown);
+    }
+
+    /**
+     * @return true if the browser is visible and not occluded
+     */
+    public boolean isShown() {
+        return visible && !occluded;
+    }
+
+    private void onShownChanged(boolean wasShown) {
+        var shown = isShown();
+        if (shown == wasShown) return;
+
+        MCEF.INSTANCE.getFrameRateGovernor().reevaluate();
+        if (shown) {
+            // Paints were dropped while hidden, get the current frame right away
+            invalidate();
+        }
+    }
+
     // Popups
     @Override
     public void onPopupShow(CefBrowser browser, boolean show) {
@@ -122,10 +384,23 @@ public class MCEFBrowser extends CefBrowserOsr {
     @Override
     public void onPopupSize(CefBrowser browser, Rectangle size) {
         super.onPopupSize(browser, size);
-        popupSize = size;
-        this.popupGraphics = ByteBuffer.allocateDirect(
-                size.width * size.height * 4
-        );
+        // CEF reports the popup in view coordinates, the texture is in device pixels
+        var scale = renderScale;
+        var x = (int) Math.round(size.x * scale);
+        var y = (int) Math.round(size.y * scale);
+        popupSize = new Rectangle(x, y, (int) Math.ceil(size.width * scale), (int) Math.ceil(size.height * scale));
+        ensurePopupGraphics();
+    }
+
+    private void ensurePopupGraphics() {
+        // Popups are resized on nearly every hover of a dropdown, so their buffers come from a pool
+        var bytes = popupSize.width * popupSize.height * PixelUtils.BYTES_PER_PIXEL;
+        if (popupGraphics == null || popupGraphics.capacity() < bytes) {
+            releasePopupGraphics();
+            popupGraphics = BufferPool.acquire(bytes);
+        } else {
+            popupGraphics.clear().limit(bytes);
+        }
     }
 
     // Graphics
@@ -135,80 +410,351 @@ public class MCEFBrowser extends CefBrowserOsr {
         if (dirtyRects.length == 0) {
             return;
         }
+        paintCount++;
+
+        if (!popup && !captureRequests.isEmpty()) {
+            // The buffer holds the whole view, no matter which parts were reported dirty
+            serveCaptures(buffer, width, height);
+        }
+
+        var textureRenderer = this.textureRenderer;
+        if (!popup && !isShown() && textureRenderer != null) {
+            // Nobody is looking, don't spend time on uploads. A full repaint is requested when shown again.
+            // Headless renderers take every paint, their frames are not looked at on screen.
+            super.onPaint(browser, popup, dirtyRects, buffer, width, height);
+            return;
+        }
 
         if (!popup) {
-            if (lastWidth != width || lastHeight != height) {
+            if (textureRenderer != null) {
+                textureRenderer.updateOpacity(buffer, width, height, dirtyRects);
+            }
+
+            // Moves have to be applied in order to the texture, which a mailbox or a popup on top would skip
+            var scrollable = textureRenderer != null && this.frameMailbox == null && !popupDrawn && !showPopup
+                    && !textureRenderer.isTiled() && textureRenderer.isTextureReady()
+                    && lastWidth == width && lastHeight == height;
+            MCEFDamageRegion damage = null;
+            if (!scrollable) {
+                scrollDetector.invalidate();
+            } else if ((damage = scrollDetector.detect(buffer, width, height, dirtyRects)) != null) {
+                if (textureRenderer.moveContent(scrollDetector)) {
+                    // The shadow copy of the differ has to follow the move
+                    frameDiffer.refresh(buffer, width, height);
+                } else {
+                    damage = null;
+                }
+            }
+            if (damage == null) {
+                damage = frameDiffer.diff(buffer, width, height, dirtyRects);
+            }
+            if (damage != null && damage.isEmpty() && lastWidth == width && lastHeight == height) {
+                // Nothing actually changed, apart from content that was moved
+                renderer.finishFrame();
+                super.onPaint(browser, popup, dirtyRects, buffer, width, height);
+                return;
+            }
+
+            var frameMailbox = this.frameMailbox;
+            if (frameMailbox != null) {
+                lastWidth = width;
+                lastHeight = height;
+                var published = damage != null
+                        ? frameMailbox.publish(buffer, width, height, damage)
+                        : frameMailbox.publish(buffer, width, height, dirtyRects);
+                var uploadJob = this.uploadJob;
+                if (published && uploadJob != null) {
+                    uploadJob.submit();
+                } else if (published) {
+                    scheduleUpload();
+                }
+            } else if (lastWidth != width || lastHeight != height) {
                 lastWidth = width;
                 lastHeight = height;
                 // upload full texture
                 // this also sets up the texture size and creates the texture
                 renderer.onPaint(buffer, width, height);
+                renderer.finishFrame();
             } else {
-                if (renderer.getTextureId() == 0) return;
-                GlStateManager._bindTexture(renderer.getTextureId());
-                GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, width);
-                for (Rectangle dirtyRect : dirtyRects) {
-                    GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
-                    GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
-                    renderer.onPaint(buffer, dirtyRect.x, dirtyRect.y, dirtyRect.width, dirtyRect.height);
+                if (!renderer.isReady()) {
+                    frameDiffer.invalidate();
+                    return;
                 }
-                if ((popupDrawn || showPopup) && popupSize != null) {
-                    // interpret where the popup was as a dirty rect
-                    if (!showPopup) {
-                        // if the popup is not visible, just draw the contents of the buffer
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, popupSize.width);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, popupSize.height);
-                        renderer.onPaint(buffer, popupSize.x, popupSize.y, popupSize.width, popupSize.height);
-                        popupGraphics = null;
-                        popupSize = null;
-                    } else if (popupDrawn) {
-                        // else, a use copy of the popup graphics, as it needs to remain visible
-                        // and for some reason that I do not for the life of me understand, chromium does not seem to keep this data in memory outside of the paint loop, meaning it has to be copied around, which wastes performance
-                        GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, popupSize.width);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
-                        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, 0);
-                        renderer.onPaint(popupGraphics, popupSize.x, popupSize.y, popupSize.width, popupSize.height);
-                    }
+                if (damage != null) {
+                    paintPlanner.plan(damage, width, height);
+                } else {
+                    paintPlanner.plan(dirtyRects, width, height);
                 }
+                renderer.onPaint(buffer, width, paintPlanner, 0, 0);
+                paintPopupOverlay(buffer, 0, 0, width, height);
+                renderer.finishFrame();
             }
         } else {
-            if (renderer.getTextureId() == 0) return;
-            GlStateManager._bindTexture(renderer.getTextureId());
-            int start = buffer.capacity();
-            int end = 0;
-            for (Rectangle dirtyRect : dirtyRects) {
-                GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, popupSize.width);
-                GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, dirtyRect.x);
-                GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, dirtyRect.y);
-                renderer.onPaint(buffer, popupSize.x + dirtyRect.x, popupSize.y + dirtyRect.y, dirtyRect.width, dirtyRect.height);
-
-                int rectStart = (dirtyRect.x + ((dirtyRect.y) * popupSize.width)) << 2;
-                if (rectStart < start) start = rectStart;
-
-                int rectEnd = ((dirtyRect.x + dirtyRect.width) + ((dirtyRect.y + popupSize.height) * dirtyRect.width)) << 2;
-                if (rectEnd > end) end = rectEnd;
+            if (!renderer.isReady() || popupSize == null) return;
+            if (popupSize.width != width || popupSize.height != height) {
+                // The scaled popup size may be rounded differently than CEF did
+                popupSize.setSize(width, height);
+                ensurePopupGraphics();
             }
-            if (start < 0) start = 0;
-            if (end > buffer.capacity()) end = buffer.capacity();
-
-            if (end > start) {
-                // TODO: check if it's more performant to go for row-wise copies or if it's better to just copy the updated region
-                if (this.popupGraphics != null) {
-                    long addrFrom = MemoryUtil.memAddress(buffer);
-                    long addrTo = MemoryUtil.memAddress(popupGraphics);
-                    MemoryUtil.memCopy(
-                            addrFrom + start,
-                            addrTo + start,
-                            (end - start)
-                    );
+            popupPaintPlanner.plan(dirtyRects, popupSize.width, popupSize.height);
+            renderer.onPaint(buffer, popupSize.width, popupPaintPlanner, popupSize.x, popupSize.y);
+
+            // Keep a copy of the rows that changed, the popup has to be re-applied whenever the view below it is painted
+            if (this.popupGraphics != null) {
+                var source = MemoryUtil.memAddress(buffer);
+                var destination = MemoryUtil.memAddress(popupGraphics);
+                for (int i = 0; i < popupPaintPlanner.size(); i++) {
+                    pixelCopier.copyRect(source, destination, popupSize.width,
+                            popupPaintPlanner.getX(i), popupPaintPlanner.getY(i),
+                            popupPaintPlanner.getWidth(i), popupPaintPlanner.getHeight(i));
                 }
             }
 
             popupDrawn = true;
+            if (textureRenderer != null) {
+                // Popups are not scanned, they may have rounded corners
+                textureRenderer.markTranslucent(popupSize.x, popupSize.y, popupSize.width, popupSize.height);
+            }
+            renderer.finishFrame();
         }
         super.onPaint(browser, popup, dirtyRects, buffer, width, height);
     }
 
+    /**
+     * Re-applies the popup on top of the main view after the view was uploaded, or restores
+     * the area the popup covered once it is hidden.
+     *
+     * @param buffer         the pixels of the main view, or null if they are held by a texture
+     * @param pixelBuffer    the pixel buffer object holding the same pixels, or 0
+     * @param stagingTexture the texture holding the same pixels, or 0
+     */
+    private void paintPopupOverlay(@Nullable ByteBuffer buffer, int pixelBuffer, int stagingTexture,
+                                   int width, int height) {
+        if ((popupDrawn || showPopup) && popupSize != null) {
+            // interpret where the popup was as a dirty rect
+            if (!showPopup) {
+                // if the popup is not visible, just draw the contents of the buffer
+                popupPaintPlanner.plan(popupSize.x, popupSize.y, popupSize.width, popupSize.height, width, height);
+                if (stagingTexture != 0) {
+                    getRenderer().copyFrame(stagingTexture, popupPaintPlanner);
+                } else if (buffer != null) {
+                    uploadView(buffer, pixelBuffer, width, popupPaintPlanner);
+                }
+                releasePopupGraphics();
+                popupSize = null;
+            } else if (popupDrawn && popupGraphics != null) {
+                // else, a use copy of the popup graphics, as it needs to remain visible
+                // and for some reason that I do not for the life of me understand, chromium does not seem to keep this data in memory outside of the paint loop, meaning it has to be copied around, which wastes performance
+                popupPaintPlanner.plan(0, 0, popupSize.width, popupSize.height, popupSize.width, popupSize.height);
+                renderer.onPaint(popupGraphics, popupSize.width, popupPaintPlanner, popupSize.x, popupSize.y);
+            }
+        }
+    }
+
+    private void releasePopupGraphics() {
+        if (popupGraphics != null) {
+            BufferPool.release(popupGraphics);
+            popupGraphics = null;
+        }
+    }
+
+    /**
+     * Uploads the latest frame staged in the mailbox. Frames staged in between two calls are skipped,
+     * only their accumulated damage is uploaded.
+     */
+    private long consumeFrame() {
+        frameConsumeScheduled.set(false);
+
+        var frameMailbox = this.frameMailbox;
+        if (frameMailbox == null) return 0;
+
+        var slot = frameMailbox.acquire();
+        if (slot == null || slot.getBuffer() == null) return 0;
+
+        var buffer = slot.getBuffer();
+        var pixelBuffer = slot.getPixelBuffer();
+        var width = slot.getWidth();
+        var height = slot.getHeight();
+        if (!renderer.isReady() || renderer.getWidth() != width || renderer.getHeight() != height) {
+            renderer.resize(width, height);
+            paintPlanner.plan(0, 0, width, height, width, height);
+        } else {
+            paintPlanner.plan(slot.getDamage(), width, height);
+        }
+
+        uploadView(buffer, pixelBuffer, width, paintPlanner);
+        paintPopupOverlay(buffer, pixelBuffer, 0, width, height);
+        frameMailbox.release(slot);
+        renderer.finishFrame();
+        return paintPlanner.getLastUploadBytes();
+    }
+
+    /**
+     * Copies the frame the {@link MCEFUploadWorker} finished into the texture. Frames staged while the worker
+     * was busy are merged into its next upload.
+     */
+    private long copyWorkerFrame(MCEFUploadWorker.Job uploadJob) {
+        frameConsumeScheduled.set(false);
+
+        var worker = uploadJob.getWorker();
+        var damage = worker.beginCopy(uploadJob);
+        if (damage == null) return 0;
+
+        var width = uploadJob.getWidth();
+        var height = uploadJob.getHeight();
+        if (!renderer.isReady() || renderer.getWidth() != width || renderer.getHeight() != height) {
+            renderer.resize(width, height);
+            paintPlanner.plan(0, 0, width, height, width, height);
+        } else {
+            paintPlanner.plan(damage, width, height);
+        }
+
+        var buffer = uploadJob.getBuffer();
+        if (buffer != null) {
+            renderer.onPaint(buffer, width, paintPlanner, 0, 0);
+        } else {
+            getRenderer().copyFrame(uploadJob.getTexture(), paintPlanner);
+        }
+        paintPopupOverlay(buffer, 0, uploadJob.getTexture(), width, height);
+        worker.endCopy(uploadJob);
+        renderer.finishFrame();
+        return paintPlanner.getLastUploadBytes();
+    }
+
+    /**
+     * Uploads the frame staged in the mailbox, or copies the one the upload worker finished.
+     * Called by the {@link MCEFUploadScheduler}.
+     *
+     * @return the number of bytes uploaded for the main view
+     */
+    long uploadStagedFrame() {
+        var uploadJob = this.uploadJob;
+        return uploadJob != null ? copyWorkerFrame(uploadJob) : consumeFrame();
+    }
+
+    /**
+     * Submits this browser to the {@link MCEFUploadScheduler}, unless it is already pending.
+     * May be called from any thread.
+     */
+    void scheduleUpload() {
+        // Staged frames are uploaded by the render thread, at most once per frame
+        if (frameConsumeScheduled.compareAndSet(false, true)) {
+            MCEF.INSTANCE.getUploadScheduler().submit(this);
+        }
+    }
+
+    @Nullable MCEFFrameMailbox getFrameMailbox() {
+        return frameMailbox;
+    }
+
+    private void uploadView(ByteBuffer buffer, int pixelBuffer, int width, MCEFPaintPlanner plan) {
+        if (pixelBuffer != 0) {
+            getRenderer().onPaint(pixelBuffer, width, plan, 0, 0);
+        } else {
+            renderer.onPaint(buffer, width, plan, 0, 0);
+        }
+    }
+
+    /**
+     * Checks if the frame mailbox stages paints in persistently mapped pixel buffers,
+     * see {@link #setPersistentStagingEnabled(boolean)}.
+     */
+    public boolean isPersistentStagingEnabled() {
+        var frameMailbox = this.frameMailbox;
+        return frameMailbox != null ? frameMailbox.isPersistent() : persistentStaging;
+    }
+
+    /**
+     * Stages software paints in persistently mapped pixel buffers instead of off-heap memory. Paint callbacks
+     * then copy their dirty regions straight into memory the GPU reads from, and the render thread only issues
+     * a fenced texture update. Falls back to off-heap staging when persistent mapping is not supported.
+     * Enables the frame mailbox and disables the upload worker. Has no effect on headless browsers.
+     * Must be called on the render thread.
+     *
+     * @param enabled whether to stage paints in persistently mapped buffers
+     */
+    public void setPersistentStagingEnabled(boolean enabled) {
+        if (textureRenderer == null) return;
+        if (enabled && !MCEFFrameMailbox.isPersistentMappingSupported()) {
+            MCEF.INSTANCE.LOGGER.info("Persistently mapped buffers are not supported, staging paints off-heap");
+            enabled = false;
+        }
+
+        persistentStaging = enabled;
+        // Persistently mapped buffers are uploaded by the render thread
+        if (enabled) uploadWorkerEnabled = false;
+        // Recreate the mailbox with the new storage
+        setFrameMailboxEnabled(false);
+        setFrameMailboxEnabled(true);
+    }
+
+    /**
+     * Checks if software paints are staged in a frame mailbox, see {@link #setFrameMailboxEnabled(boolean)}.
+     */
+    public boolean isFrameMailboxEnabled() {
+        return frameMailbox != null;
+    }
+
+    /**
+     * Enables or disables staging of software paints. When enabled, paint callbacks only copy their dirty
+     * regions into an off-heap, triple-buffered mailbox and the render thread uploads just the latest frame,
+     * dropping intermediate frames CEF painted in between. Has no effect on headless browsers, which have no render
+     * thread to upload on. Must be called on the render thread.
+     *
+     * @param enabled whether to stage paints in a frame mailbox
+     */
+    public void setFrameMailboxEnabled(boolean enabled) {
+        if (enabled == (frameMailbox != null) || textureRenderer == null) return;
+
+        if (enabled) {
+            frameMailbox = new MCEFFrameMailbox(persistentStaging, pixelCopier);
+            var worker = uploadWorkerEnabled ? MCEF.INSTANCE.getUploadWorker() : null;
+            if (worker != null) uploadJob = worker.register(this);
+        } else {
+            releaseUploadJob();
+            frameMailbox.close();
+            frameMailbox = null;
+        }
+        // Start from a complete frame
+        lastWidth = 0;
+        lastHeight = 0;
+        invalidate();
+    }
+
+    private void releaseUploadJob() {
+        var uploadJob = this.uploadJob;
+        if (uploadJob != null) {
+            this.uploadJob = null;
+            // Waits for an upload from the mailbox in progress
+            uploadJob.getWorker().unregister(uploadJob);
+        }
+    }
+
+    /**
+     * Checks if staged paints are uploaded on the upload worker, see {@link #setUploadWorkerEnabled(boolean)}.
+     */
+    public boolean isUploadWorkerEnabled() {
+        return uploadJob != null;
+    }
+
+    /**
+     * Uploads staged software paints on the {@link MCEFUploadWorker} thread, into a staging texture of a shared
+     * context. The render thread then only copies finished frames on the GPU, and never waits for an upload.
+     * Costs a second texture of the frame size. Has no effect if the worker is not supported or the browser is
+     * headless. Enables the frame mailbox and disables persistent staging. Must be called on the render thread.
+     *
+     * @param enabled whether to upload staged paints on the upload worker
+     */
+    public void setUploadWorkerEnabled(boolean enabled) {
+        if (textureRenderer == null || enabled && MCEF.INSTANCE.getUploadWorker() == null) return;
+
+        uploadWorkerEnabled = enabled;
+        if (enabled) persistentStaging = false;
+        // Recreate the mailbox with the new consumer
+        setFrameMailboxEnabled(false);
+        setFrameMailboxEnabled(true);
+    }
+
     @Override
     public void onAcceleratedPaint(CefBrowser browser, boolean popup, Rectangle[] dirtyRects,
                                    CefAcceleratedPaintInfo info) {
@@ -222,6 +768,13 @@ public class MCEFBrowser extends CefBrowserOsr {
                 dirtyRects[0].width <= 1 || dirtyRects[0].height <= 1) {
             return;
         }
+        paintCount++;
+
+        // Captures read the texture, so it is updated for them even while hidden
+        if (!isShown() && (popup || captureRequests.isEmpty())) {
+            super.onAcceleratedPaint(browser, popup, dirtyRects, info);
+            return;
+        }
 
         var width = info.width;
         var height = info.height;
@@ -240,6 +793,9 @@ public class MCEFBrowser extends CefBrowserOsr {
 
         if (!popup) {
             renderer.onAcceleratedPaint(info, width, height);
+            if (!captureRequests.isEmpty()) {
+                readCaptures(width, height);
+            }
         } else {
             MCEF.INSTANCE.LOGGER.warn("Accelerated paint for popups is not supported in MCEF.");
         }
@@ -247,9 +803,179 @@ public class MCEFBrowser extends CefBrowserOsr {
         super.onAcceleratedPaint(browser, popup, dirtyRects, info);
     }
 
+    /**
+     * Captures the whole view, see {@link #capture(int, int, int, int)}.
+     */
+    public CompletableFuture<MCEFFrameImage> capture() {
+        return capture(0, 0, -1, -1);
+    }
+
+    /**
+     * Captures a rectangle of the view, in texture pixels, with the next paint. A repaint is requested, so the
+     * capture completes within a frame of CEF, or about a second while the browser is hidden. The popup on top
+     * of the view, e.g. an open dropdown, is not captured.
+     * <p>
+     * Software paints are captured straight from CEF's buffer on the thread that delivers them. Accelerated paints
+     * are read back from the texture asynchronously by the {@link MCEFFrameReadback} and complete on the
+     * render thread a frame or two later. Neither waits for the GPU. May be called from any thread.
+     *
+     * @param width  The width of the rectangle, or -1 for the rest of the view
+     * @param height The height of the rectangle, or -1 for the rest of the view
+     * @return The captured pixels, which the caller has to close. Fails with an {@link IllegalArgumentException}
+     * if the rectangle is not within the view, or with an {@link IllegalStateException} if the browser is closed.
+     */
+    public CompletableFuture<MCEFFrameImage> capture(int x, int y, int width, int height) {
+        var future = new CompletableFuture<MCEFFrameImage>();
+        captureRequests.add(new CaptureRequest(x, y, width, height, future));
+        invalidate();
+        return future;
+    }
+
+    /**
+     * Resolves the rectangle of a capture against the view.
+     *
+     * @return The rectangle, or null if the request was failed
+     */
+    private static @Nullable Rectangle getCaptureRect(CaptureRequest request, int width, int height) {
+        var rect = new Rectangle(request.x(), request.y(),
+                request.width() < 0 ? width - request.x() : request.width(),
+                request.height() < 0 ? height - request.y() : request.height());
+        if (rect.x < 0 || rect.y < 0 || rect.width <= 0 || rect.height <= 0
+                || rect.x + rect.width > width || rect.y + rect.height > height) {
+            request.future().completeExceptionally(new IllegalArgumentException(
+                    "Capture " + rect + " is not within the view of " + width + "x" + height));
+            return null;
+        }
+        return rect;
+    }
+
+    private void serveCaptures(ByteBuffer buffer, int width, int height) {
+        var source = MemoryUtil.memAddress(buffer);
+        CaptureRequest request;
+        while ((request = captureRequests.poll()) != null) {
+            var rect = getCaptureRect(request, width, height);
+            if (rect == null) continue;
+            request.future().complete(MCEFFrameImage.copyOf(source, width, rect.x, rect.y, rect.width, rect.height));
+        }
+    }
+
+    private void readCaptures(int width, int height) {
+        var textureRenderer = this.textureRenderer;
+        var texture = textureRenderer != null ? textureRenderer.getTexture() : null;
+        if (!(texture instanceof GlTexture glTexture)) {
+            // Nothing to read back from, the captures would otherwise wait forever
+            failCaptures(new UnsupportedOperationException("The browser texture cannot be read back"));
+            return;
+        }
+
+        var readback = MCEF.INSTANCE.getFrameReadback();
+        CaptureRequest request;
+        while ((request = captureRequests.poll()) != null) {
+            var rect = getCaptureRect(request, width, height);
+            if (rect == null) continue;
+            readback.read(glTexture.glId(), textureRenderer.isBGRA(), rect.x, rect.y, rect.width, rect.height,
+                    request.future());
+        }
+    }
+
+    private void failCaptures(RuntimeException cause) {
+        CaptureRequest request;
+        while ((request = captureRequests.poll()) != null) {
+            request.future().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Resizes the browser. Resizes arriving in quick succession, e.g. while a window edge is dragged,
+     * are coalesced: the first one is applied immediately, the last one once no further resize arrived
+     * for {@link #RESIZE_DEBOUNCE_MS} milliseconds.
+     *
+     * @param width  the new width of the browser
+     * @param height the new height of the browser
+     */
     public void resize(int width, int height) {
-        browser_rect_.setBounds(0, 0, width, height);
-        wasResized(width, height);
+        synchronized (resizeLock) {
+            pendingWidth = width;
+            pendingHeight = height;
+
+            var now = System.nanoTime();
+            var settled = now - lastResizeNanos > RESIZE_DEBOUNCE_MS * 1_000_000L;
+            lastResizeNanos = now;
+
+            if (settled && pendingResize == null) {
+                applyResize();
+            } else if (pendingResize == null) {
+                pendingResize = MCEF.INSTANCE.getScheduler().schedule(this::applyPendingResize,
+                        RESIZE_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void applyPendingResize() {
+        synchronized (resizeLock) {
+            var quietNanos = System.nanoTime() - lastResizeNanos;
+            var debounceNanos = RESIZE_DEBOUNCE_MS * 1_000_000L;
+            if (quietNanos < debounceNanos) {
+                // Still being resized, wait until it settles
+                pendingResize = MCEF.INSTANCE.getScheduler().schedule(this::applyPendingResize,
+                        debounceNanos - quietNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            pendingResize = null;
+        }
+        if (textureRenderer != null) {
+            // CEF reads the view rectangle on the client thread, where every other resize is applied
+            mc().execute(this::applySettledResize);
+        } else {
+            // Headless browsers have no client thread, keep the browser's work off the scheduler
+            MCEF.INSTANCE.getHeadlessExecutor().execute(this::applySettledResize);
+        }
+    }
+
+    private void applySettledResize() {
+        synchronized (resizeLock) {
+            if (pendingResize == null) applyResize();
+        }
+    }
+
+    private void applyResize() {
+        if (browser_rect_.width == pendingWidth && browser_rect_.height == pendingHeight) return;
+
+        browser_rect_.setBounds(0, 0, pendingWidth, pendingHeight);
+        wasResized(pendingWidth, pendingHeight);
+    }
+
+    /**
+     * @return the number of texture pixels per view pixel, see {@link #setRenderScale(double)}
+     */
+    public double getRenderScale() {
+        return renderScale;
+    }
+
+    /**
+     * Sets the resolution the page is rendered at, relative to the size passed to {@link #resize(int, int)}.
+     * The page layout stays the same; only the texture gets more or fewer pixels. For example,
+     * 0.5 halves the resolution of a large, far-away screen, and 2 renders at HiDPI. The scale is applied as
+     * CEF's device scale factor. The coordinates passed to the {@code sendMouse*} methods stay in view pixels,
+     * the same units as {@link #resize(int, int)}, whatever the scale is.
+     *
+     * @param renderScale the render scale, clamped to [{@value #MIN_RENDER_SCALE}, {@value #MAX_RENDER_SCALE}]
+     */
+    public void setRenderScale(double renderScale) {
+        renderScale = Math.clamp(renderScale, MIN_RENDER_SCALE, MAX_RENDER_SCALE);
+        if (renderScale == this.renderScale) return;
+
+        this.renderScale = renderScale;
+        notifyScreenInfoChanged();
+        wasResized(browser_rect_.width, browser_rect_.height);
+    }
+
+    @Override
+    public boolean getScreenInfo(CefBrowser browser, CefScreenInfo screenInfo) {
+        var bounds = browser_rect_.getBounds();
+        screenInfo.Set(renderScale, 32, 8, false, bounds, bounds);
+        return true;
     }
 
     // Inputs
@@ -284,11 +1010,18 @@ public class MCEFBrowser extends CefBrowserOsr {
     }
 
     public void sendMouseMove(int mouseX, int mouseY) {
-        sendMouseEvent(new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, mouseX, mouseY, clicks, mouseButton,
-                dragContext.getVirtualModifiers(btnMask)));
+        // Mouse moves arrive every frame, the event is handed to CEF synchronously so it can be reused
+        var event = mouseMoveEvent;
+        event.x = mouseX;
+        event.y = mouseY;
+        event.clickCount = clicks;
+        event.button = mouseButton;
+        event.modifiers = dragContext.getVirtualModifiers(btnMask);
+        sendMouseEvent(event);
 
         if (dragContext.isDragging()) {
-            this.dragTargetDragOver(new Point(mouseX, mouseY), 0, dragContext.getMask());
+            dragPoint.setLocation(mouseX, mouseY);
+            this.dragTargetDragOver(dragPoint, 0, dragContext.getMask());
         }
     }
 
@@ -398,7 +1131,30 @@ public class MCEFBrowser extends CefBrowserOsr {
     }
 
     // Closing
+
+    /**
+     * Closes the browser and its renderer. Must be called on the render thread, or for headless browsers on the
+     * thread that delivers paints.
+     */
     public void close() {
+        MCEF.INSTANCE.getFrameRateGovernor().unregister(this);
+        if (textureRenderer != null) {
+            MCEF.INSTANCE.getUploadScheduler().remove(this);
+        }
+        synchronized (resizeLock) {
+            if (pendingResize != null) {
+                pendingResize.cancel(false);
+                pendingResize = null;
+            }
+        }
+        releaseUploadJob();
+        if (frameMailbox != null) {
+            frameMailbox.close();
+            frameMailbox = null;
+        }
+        releasePopupGraphics();
+        failCaptures(new IllegalStateException("Browser was closed"));
+        frameDiffer.close();
         renderer.close();
         cursorChangeListener.onCursorChange(0);
         super.close(true);
@@ -406,7 +1162,11 @@ public class MCEFBrowser extends CefBrowserOsr {
 
     @Override
     protected void finalize() throws Throwable {
-        mc.schedule(renderer::close);
+        if (textureRenderer != null) {
+            mc().schedule(textureRenderer::close);
+        } else {
+            renderer.close();
+        }
         super.finalize();
     }
 
@@ -419,7 +1179,7 @@ public class MCEFBrowser extends CefBrowserOsr {
     }
 
     public void setCursor(CefCursorType cursorType) {
-        var windowHandle = mc.getWindow().handle();
+        var windowHandle = mc().getWindow().handle();
 
         // We do not want to change the cursor state since Minecraft does this for us.
         if (cursorType == CefCursorType.NONE) return;
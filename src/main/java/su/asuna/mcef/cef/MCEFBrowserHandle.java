@@ -0,0 +1,124 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.io.Closeable;
+
+/**
+ * A reference to a browser shared through {@link MCEFSharedBrowsers}. Every handle can draw the browser,
+ * only the owner's input and resizes are forwarded to it.
+ */
+@NullMarked
+public final class MCEFBrowserHandle implements Closeable {
+
+    private final MCEFSharedBrowsers sharedBrowsers;
+    private final MCEFSharedBrowsers.Entry entry;
+    private volatile boolean visible = true;
+    private volatile boolean closed = false;
+
+    MCEFBrowserHandle(MCEFSharedBrowsers sharedBrowsers, MCEFSharedBrowsers.Entry entry) {
+        this.sharedBrowsers = sharedBrowsers;
+        this.entry = entry;
+    }
+
+    MCEFSharedBrowsers.Entry getEntry() {
+        return entry;
+    }
+
+    /**
+     * @return the shared browser. Prefer the methods of this handle for input, so that it is routed to the owner.
+     */
+    public MCEFBrowser getBrowser() {
+        return entry.getBrowser();
+    }
+
+    /**
+     * @return the renderer whose texture every handle draws
+     */
+    public MCEFRenderer getRenderer() {
+        return entry.getBrowser().getRenderer();
+    }
+
+    /**
+     * @return true if input and resizes from this handle are forwarded to the browser
+     */
+    public boolean isOwner() {
+        return !closed && sharedBrowsers.isOwner(this);
+    }
+
+    /**
+     * Makes this handle the owner, e.g. when the player starts interacting with its surface.
+     */
+    public void claimOwnership() {
+        if (!closed) sharedBrowsers.claimOwnership(this);
+    }
+
+    /**
+     * @return the number of open handles to the same browser, including this one
+     */
+    public int getHandleCount() {
+        return closed ? 0 : sharedBrowsers.getHandleCount(this);
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    /**
+     * Tells whether this handle's surface is drawn. The browser is shown while any of its handles is visible,
+     * see {@link MCEFBrowser#setVisible(boolean)}.
+     */
+    public void setVisible(boolean visible) {
+        if (this.visible == visible) return;
+        this.visible = visible;
+        if (!closed) sharedBrowsers.updateVisibility(entry);
+    }
+
+    public void resize(int width, int height) {
+        if (isOwner()) getBrowser().resize(width, height);
+    }
+
+    public void setFocus(boolean enable) {
+        if (isOwner()) getBrowser().setFocus(enable);
+    }
+
+    // Inputs
+    public void sendKeyPress(int keyCode, long scanCode, int modifiers) {
+        if (isOwner()) getBrowser().sendKeyPress(keyCode, scanCode, modifiers);
+    }
+
+    public void sendKeyRelease(int keyCode, long scanCode, int modifiers) {
+        if (isOwner()) getBrowser().sendKeyRelease(keyCode, scanCode, modifiers);
+    }
+
+    public void sendKeyTyped(char c, int modifiers) {
+        if (isOwner()) getBrowser().sendKeyTyped(c, modifiers);
+    }
+
+    public void sendMouseMove(int mouseX, int mouseY) {
+        if (isOwner()) getBrowser().sendMouseMove(mouseX, mouseY);
+    }
+
+    public void sendMousePress(int mouseX, int mouseY, int button) {
+        if (isOwner()) getBrowser().sendMousePress(mouseX, mouseY, button);
+    }
+
+    public void sendMouseRelease(int mouseX, int mouseY, int button) {
+        if (isOwner()) getBrowser().sendMouseRelease(mouseX, mouseY, button);
+    }
+
+    public void sendMouseWheel(int mouseX, int mouseY, double amount) {
+        if (isOwner()) getBrowser().sendMouseWheel(mouseX, mouseY, amount);
+    }
+
+    /**
+     * Releases this handle. The browser is closed when its last handle is released; must then be called
+     * on the render thread.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        sharedBrowsers.release(this);
+    }
+}
@@ -0,0 +1,67 @@
+package su.asuna.mcef.cef;
+
+import org.cef.handler.CefAcceleratedPaintInfo;
+import org.jspecify.annotations.NullMarked;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the paints of a {@link MCEFBrowser}, chosen when the browser is constructed.
+ * <p>
+ * {@link MCEFRenderer} uploads them to a texture on the render thread, {@link MCEFHeadlessRenderer} composes them
+ * off-heap without OpenGL. The browser decides which regions of a software paint are updated and calls the
+ * renderer for them; a popup is painted with its position as offset and painted again over the view whenever
+ * the view below it changes. Every paint ends with {@link #finishFrame()}.
+ * <p>
+ * Must only be used by the thread that delivers paints.
+ */
+@NullMarked
+public interface MCEFBrowserRenderer extends Closeable {
+
+    /**
+     * Replaces the whole frame with a software paint, resizing the frame to it.
+     */
+    void onPaint(ByteBuffer buffer, int width, int height);
+
+    /**
+     * Updates the planned regions of the frame from a software paint.
+     *
+     * @param bufferWidth The width of the buffer in pixels
+     * @param plan        The regions to update, in buffer coordinates
+     * @param offsetX     Where the buffer starts in the frame, e.g. the position of a popup
+     * @param offsetY     Where the buffer starts in the frame, e.g. the position of a popup
+     */
+    void onPaint(ByteBuffer buffer, int bufferWidth, MCEFPaintPlanner plan, int offsetX, int offsetY);
+
+    /**
+     * Takes an accelerated paint, which shares a texture of the GPU process instead of a buffer.
+     */
+    void onAcceleratedPaint(CefAcceleratedPaintInfo info, int width, int height);
+
+    /**
+     * Resizes the frame, e.g. before the regions of a staged paint are updated. The content is undefined until
+     * it is painted.
+     */
+    void resize(int width, int height);
+
+    /**
+     * Ends a paint, after all of its regions were updated.
+     */
+    void finishFrame();
+
+    /**
+     * @return true once a frame was painted, so that regions of it can be updated
+     */
+    boolean isReady();
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Frees the frame.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,92 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.awt.*;
+
+/**
+ * A bounded list of damaged rectangles. Once more than {@link #MAX_RECTS} rectangles are added,
+ * the region collapses into its bounding box, so it never grows or allocates after construction.
+ * Rectangles may overlap.
+ */
+@NullMarked
+public final class MCEFDamageRegion {
+
+    public static final int MAX_RECTS = 16;
+
+    // x, y, width, height quadruples
+    private final int[] rects = new int[MAX_RECTS << 2];
+    private int count = 0;
+
+    void clear() {
+        count = 0;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getX(int index) {
+        return rects[index << 2];
+    }
+
+    public int getY(int index) {
+        return rects[(index << 2) + 1];
+    }
+
+    public int getWidth(int index) {
+        return rects[(index << 2) + 2];
+    }
+
+    public int getHeight(int index) {
+        return rects[(index << 2) + 3];
+    }
+
+    void add(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) return;
+
+        if (count == MAX_RECTS) {
+            int x0 = x, y0 = y, x1 = x + width, y1 = y + height;
+            for (int i = 0; i < count; i++) {
+                int o = i << 2;
+                x0 = Math.min(x0, rects[o]);
+                y0 = Math.min(y0, rects[o + 1]);
+                x1 = Math.max(x1, rects[o] + rects[o + 2]);
+                y1 = Math.max(y1, rects[o + 1] + rects[o + 3]);
+            }
+            count = 0;
+            x = x0;
+            y = y0;
+            width = x1 - x0;
+            height = y1 - y0;
+        }
+
+        int o = count << 2;
+        rects[o] = x;
+        rects[o + 1] = y;
+        rects[o + 2] = width;
+        rects[o + 3] = height;
+        count++;
+    }
+
+    void add(Rectangle[] dirtyRects) {
+        for (Rectangle rect : dirtyRects) {
+            add(rect.x, rect.y, rect.width, rect.height);
+        }
+    }
+
+    void add(MCEFDamageRegion other) {
+        for (int i = 0; i < other.count; i++) {
+            add(other.getX(i), other.getY(i), other.getWidth(i), other.getHeight(i));
+        }
+    }
+
+    void set(MCEFDamageRegion other) {
+        System.arraycopy(other.rects, 0, rects, 0, other.count << 2);
+        count = other.count;
+    }
+}
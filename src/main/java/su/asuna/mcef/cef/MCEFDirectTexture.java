@@ -27,6 +27,8 @@ import com.mojang.blaze3d.textures.GpuTexture;
 import com.mojang.blaze3d.textures.TextureFormat;
 import net.minecraft.client.gui.render.TextureSetup;
 import net.minecraft.client.renderer.texture.AbstractTexture;
+import org.jspecify.annotations.Nullable;
+import su.asuna.mcef.listeners.MCEFTextureChangeListener;
 
 /**
  * A more efficient texture implementation that directly wraps an existing OpenGL texture ID.
@@ -36,7 +38,8 @@ import net.minecraft.client.renderer.texture.AbstractTexture;
 public class MCEFDirectTexture extends AbstractTexture {
     private int width;
     private int height;
-    private TextureSetup textureSetup;
+    private TextureSetup textureSetup = TextureSetup.noTexture();
+    private @Nullable MCEFTextureChangeListener changeListener;
 
     public MCEFDirectTexture() {
         this.sampler = RenderSystem.getSamplerCache().getClampToEdge(FilterMode.LINEAR, false);
@@ -49,25 +52,55 @@ public class MCEFDirectTexture extends AbstractTexture {
      * @param textureId The OpenGL texture ID to wrap
      * @param width     The width of the texture
      * @param height    The height of the texture
+     * @return true if the texture changed, false if it already wrapped the same ID with the same size
      */
-    public void setDirectTextureId(int textureId, int width, int height) {
+    public boolean setDirectTextureId(int textureId, int width, int height) {
         // If we already have a texture and it's not the same ID, don't close it
         // (we don't own these textures, MCEFRenderer does)
 
+        // Keep the view and setup when nothing changed, so consumers can hold on to them
+        if (this.texture instanceof DirectGlTexture current && current.glId() == textureId
+                && this.width == width && this.height == height) {
+            return false;
+        }
+
+        if (this.textureView != null) {
+            this.textureView.close();
+            this.textureView = null;
+        }
+
         if (textureId > 0) {
             // Create a custom GlTexture that wraps the existing ID
             this.texture = new DirectGlTexture(textureId, width, height);
-            if (this.textureView != null) {
-                this.textureView.close();
-            }
             this.textureView = RenderSystem.getDevice().createTextureView(this.texture);
             this.textureSetup = TextureSetup.singleTexture(this.getTextureView(), this.getSampler());
             this.width = width;
             this.height = height;
         } else {
+            if (this.texture == null) {
+                return false;
+            }
             this.texture = null;
-            this.textureView = null;
+            this.textureSetup = TextureSetup.noTexture();
+            this.width = 0;
+            this.height = 0;
+        }
+
+        if (this.changeListener != null) {
+            this.changeListener.onTextureChange(this.textureSetup);
         }
+        return true;
+    }
+
+    public @Nullable MCEFTextureChangeListener getChangeListener() {
+        return changeListener;
+    }
+
+    /**
+     * Sets a listener that is called whenever {@link #setDirectTextureId(int, int, int)} replaces the texture.
+     */
+    public void setChangeListener(@Nullable MCEFTextureChangeListener changeListener) {
+        this.changeListener = changeListener;
     }
 
     public int getWidth() {
@@ -0,0 +1,302 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import su.asuna.mcef.MCEF;
+import su.asuna.mcef.utils.BufferPool;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Shrinks the dirty rectangles CEF reports for software paints down to the pixels that actually changed.
+ * <p>
+ * CEF often reports much more than changed, e.g. a full-width band for a blinking caret. The differ keeps a
+ * shadow copy of the last uploaded frame and compares every reported row against it, two pixels per 64-bit
+ * word. Each rectangle is trimmed to the changed columns and split where unchanged rows separate changes.
+ * <p>
+ * Diffing costs a read of the reported pixels and of the shadow copy. The differ measures the share of reported
+ * bytes it avoids over a window of {@value #WINDOW_PAINTS} paints and suspends itself for
+ * {@value #SUSPEND_PAINTS} paints when that share is below the minimum savings, e.g. while a video plays.
+ * <p>
+ * Disabled by default. Must only be used by the thread that delivers paints.
+ */
+@NullMarked
+public final class MCEFFrameDiffer {
+
+    public static final int WINDOW_PAINTS = 60;
+    public static final int SUSPEND_PAINTS = 600;
+    public static final double DEFAULT_MIN_SAVINGS = 0.1;
+    // Unchanged rows between two changes that are uploaded anyway instead of splitting the rectangle
+    private static final int MAX_GAP_ROWS = 4;
+
+    private final MCEFDamageRegion damage = new MCEFDamageRegion();
+    private @Nullable ByteBuffer shadow;
+    private int width = 0;
+    private int height = 0;
+    private boolean valid = false;
+
+    private volatile boolean enabled = false;
+    private volatile double minSavings = DEFAULT_MIN_SAVINGS;
+    private int windowPaints = 0;
+    private long windowReported = 0;
+    private long windowAvoided = 0;
+    private int suspendedPaints = 0;
+
+    // Only written by the thread that delivers paints
+    private volatile long reportedBytes;
+    private volatile long bytesAvoided;
+    private volatile long diffNanos;
+    private volatile long suspensions;
+
+    /**
+     * Compares the dirty rectangles of a paint against the shadow copy and updates it.
+     *
+     * @param buffer     The pixels of the whole view
+     * @param width      The width of the view
+     * @param height     The height of the view
+     * @param dirtyRects The rectangles CEF reported as dirty
+     * @return The pixels that changed, which may be empty, or null if the differ is disabled or suspended and
+     * the dirty rectangles have to be uploaded as reported
+     */
+    @Nullable MCEFDamageRegion diff(ByteBuffer buffer, int width, int height, Rectangle[] dirtyRects) {
+        if (!enabled) {
+            releaseShadow();
+            return null;
+        }
+        if (suspendedPaints > 0) {
+            suspendedPaints--;
+            return null;
+        }
+
+        var start = System.nanoTime();
+        var pixels = MemoryUtil.memAddress(buffer);
+        damage.clear();
+
+        if (!valid || shadow == null || width != this.width || height != this.height) {
+            // Nothing to compare against, take the frame as reported
+            resizeShadow(width, height);
+            MemoryUtil.memCopy(pixels, MemoryUtil.memAddress(shadow), (long) width * height * PixelUtils.BYTES_PER_PIXEL);
+            valid = true;
+            damage.add(dirtyRects);
+            diffNanos += System.nanoTime() - start;
+            return damage;
+        }
+
+        var shadowPixels = MemoryUtil.memAddress(shadow);
+        long reported = 0;
+        for (Rectangle rect : dirtyRects) {
+            int x0 = Math.max(0, rect.x);
+            int y0 = Math.max(0, rect.y);
+            int x1 = Math.min(width, rect.x + rect.width);
+            int y1 = Math.min(height, rect.y + rect.height);
+            if (x1 <= x0 || y1 <= y0) continue;
+
+            reported += (long) (x1 - x0) * (y1 - y0) * PixelUtils.BYTES_PER_PIXEL;
+            diffRect(pixels, shadowPixels, x0, y0, x1, y1);
+        }
+
+        long changed = 0;
+        for (int i = 0; i < damage.size(); i++) {
+            changed += (long) damage.getWidth(i) * damage.getHeight(i) * PixelUtils.BYTES_PER_PIXEL;
+        }
+        account(reported, Math.max(0, reported - changed), System.nanoTime() - start);
+        return damage;
+    }
+
+    private void diffRect(long pixels, long shadowPixels, int x0, int y0, int x1, int y1) {
+        var rowBytes = (long) width * PixelUtils.BYTES_PER_PIXEL;
+        int runStart = -1, runEnd = 0, runMinX = 0, runMaxX = 0;
+
+        for (int y = y0; y < y1; y++) {
+            var offset = y * rowBytes;
+            var left = firstDifference(pixels + offset, shadowPixels + offset, x0, x1);
+            if (left == x1) continue;
+            var right = lastDifference(pixels + offset, shadowPixels + offset, left, x1);
+
+            if (runStart >= 0 && y - runEnd > MAX_GAP_ROWS) {
+                emit(pixels, shadowPixels, runMinX, runStart, runMaxX, runEnd);
+                runStart = -1;
+            }
+            if (runStart < 0) {
+                runStart = y;
+                runMinX = left;
+                runMaxX = right;
+            } else {
+                runMinX = Math.min(runMinX, left);
+                runMaxX = Math.max(runMaxX, right);
+            }
+            runEnd = y + 1;
+        }
+
+        if (runStart >= 0) {
+            emit(pixels, shadowPixels, runMinX, runStart, runMaxX, runEnd);
+        }
+    }
+
+    private void emit(long pixels, long shadowPixels, int x0, int y0, int x1, int y1) {
+        damage.add(x0, y0, x1 - x0, y1 - y0);
+        PixelUtils.copyRect(pixels, shadowPixels, width, x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * @return The first column in [from, to) that differs, or {@code to} if the row is unchanged
+     */
+    private static int firstDifference(long row, long shadowRow, int from, int to) {
+        int x = from;
+        for (; x + 1 < to; x += 2) {
+            long offset = (long) x * PixelUtils.BYTES_PER_PIXEL;
+            if (MemoryUtil.memGetLong(row + offset) != MemoryUtil.memGetLong(shadowRow + offset)) {
+                return MemoryUtil.memGetInt(row + offset) != MemoryUtil.memGetInt(shadowRow + offset) ? x : x + 1;
+            }
+        }
+        if (x < to) {
+            long offset = (long) x * PixelUtils.BYTES_PER_PIXEL;
+            if (MemoryUtil.memGetInt(row + offset) != MemoryUtil.memGetInt(shadowRow + offset)) return x;
+        }
+        return to;
+    }
+
+    /**
+     * @return The column after the last one in [from, to) that differs, where the column {@code from} differs
+     */
+    private static int lastDifference(long row, long shadowRow, int from, int to) {
+        for (int x = to; x - 2 >= from; x -= 2) {
+            long offset = (long) (x - 2) * PixelUtils.BYTES_PER_PIXEL;
+            if (MemoryUtil.memGetLong(row + offset) != MemoryUtil.memGetLong(shadowRow + offset)) {
+                return MemoryUtil.memGetInt(row + offset + 4) != MemoryUtil.memGetInt(shadowRow + offset + 4) ? x : x - 1;
+            }
+        }
+        return from + 1;
+    }
+
+    private void account(long reported, long avoided, long nanos) {
+        reportedBytes += reported;
+        bytesAvoided += avoided;
+        diffNanos += nanos;
+
+        windowReported += reported;
+        windowAvoided += avoided;
+        if (++windowPaints < WINDOW_PAINTS) return;
+
+        if (windowReported > 0 && windowAvoided < windowReported * minSavings) {
+            MCEF.INSTANCE.LOGGER.debug("Pixel diffing avoided {} of {} bytes, suspending it for {} paints",
+                    windowAvoided, windowReported, SUSPEND_PAINTS);
+            suspendedPaints = SUSPEND_PAINTS;
+            suspensions++;
+            // Frames are not compared while suspended, the shadow copy goes stale
+            valid = false;
+        }
+        windowPaints = 0;
+        windowReported = 0;
+        windowAvoided = 0;
+    }
+
+    private void resizeShadow(int width, int height) {
+        var bytes = width * height * PixelUtils.BYTES_PER_PIXEL;
+        if (shadow == null || shadow.capacity() < bytes) {
+            releaseShadow();
+            shadow = BufferPool.acquire(bytes);
+        } else {
+            shadow.clear().limit(bytes);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    private void releaseShadow() {
+        if (shadow != null) {
+            BufferPool.release(shadow);
+            shadow = null;
+        }
+        valid = false;
+    }
+
+    /**
+     * Replaces the shadow copy with a whole frame without comparing it, e.g. after its content was moved.
+     * Does nothing while the differ is disabled or suspended.
+     */
+    void refresh(ByteBuffer buffer, int width, int height) {
+        if (!enabled || suspendedPaints > 0) return;
+
+        resizeShadow(width, height);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(buffer), MemoryUtil.memAddress(shadow),
+                (long) width * height * PixelUtils.BYTES_PER_PIXEL);
+        valid = true;
+    }
+
+    /**
+     * Discards the shadow copy, e.g. when a paint was not uploaded. The next paint is taken as reported.
+     */
+    void invalidate() {
+        valid = false;
+    }
+
+    /**
+     * Frees the shadow copy.
+     */
+    void close() {
+        enabled = false;
+        releaseShadow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables pixel diffing. The shadow copy is allocated with the next paint, and freed with the
+     * next paint after disabling.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if the differ suspended itself because it did not avoid enough bytes
+     */
+    public boolean isSuspended() {
+        return suspendedPaints > 0;
+    }
+
+    public double getMinSavings() {
+        return minSavings;
+    }
+
+    /**
+     * Sets the share of reported bytes, between 0 and 1, the differ has to avoid to stay active.
+     */
+    public void setMinSavings(double minSavings) {
+        this.minSavings = Math.clamp(minSavings, 0.0, 1.0);
+    }
+
+    /**
+     * @return The number of bytes CEF reported as dirty in diffed paints
+     */
+    public long getReportedBytes() {
+        return reportedBytes;
+    }
+
+    /**
+     * @return The number of reported bytes that were unchanged and not uploaded
+     */
+    public long getBytesAvoided() {
+        return bytesAvoided;
+    }
+
+    /**
+     * @return The time spent diffing so far, in nanoseconds
+     */
+    public long getDiffNanos() {
+        return diffNanos;
+    }
+
+    /**
+     * @return The number of times the differ suspended itself
+     */
+    public long getSuspensions() {
+        return suspensions;
+    }
+}
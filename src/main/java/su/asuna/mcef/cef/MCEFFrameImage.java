@@ -0,0 +1,101 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import su.asuna.mcef.utils.BufferPool;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Pixels captured from a browser, see {@link MCEFBrowser#capture()}.
+ * <p>
+ * The pixels are off-heap, in CEF's byte order (blue, green, red, alpha), with rows from top to bottom and
+ * no padding. They are borrowed from the {@link BufferPool} and have to be handed back with {@link #close()}.
+ */
+@NullMarked
+public final class MCEFFrameImage implements Closeable {
+
+    private @Nullable ByteBuffer pixels;
+    private final int width;
+    private final int height;
+
+    MCEFFrameImage(ByteBuffer pixels, int width, int height) {
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Copies a rectangle out of a buffer holding a whole frame.
+     *
+     * @param source      The address of the frame
+     * @param sourceWidth The row length of the frame in pixels
+     */
+    static MCEFFrameImage copyOf(long source, int sourceWidth, int x, int y, int width, int height) {
+        var rowBytes = width * PixelUtils.BYTES_PER_PIXEL;
+        var pixels = BufferPool.acquire(rowBytes * height);
+        var destination = MemoryUtil.memAddress(pixels);
+        var sourceRowBytes = (long) sourceWidth * PixelUtils.BYTES_PER_PIXEL;
+        var row = source + y * sourceRowBytes + (long) x * PixelUtils.BYTES_PER_PIXEL;
+        if (x == 0 && width == sourceWidth) {
+            MemoryUtil.memCopy(row, destination, (long) rowBytes * height);
+        } else {
+            for (int i = 0; i < height; i++) {
+                MemoryUtil.memCopy(row + i * sourceRowBytes, destination + (long) i * rowBytes, rowBytes);
+            }
+        }
+        return new MCEFFrameImage(pixels, width, height);
+    }
+
+    /**
+     * @return The pixels, with the position at the first pixel and the limit after the last one
+     * @throws IllegalStateException if the image was closed
+     */
+    public ByteBuffer getPixels() {
+        var pixels = this.pixels;
+        if (pixels == null) {
+            throw new IllegalStateException("Frame image was closed");
+        }
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The number of bytes per row
+     */
+    public int getStride() {
+        return width * PixelUtils.BYTES_PER_PIXEL;
+    }
+
+    /**
+     * @return The pixel at the given position, as 0xAARRGGBB
+     */
+    public int getPixel(int x, int y) {
+        var pixels = getPixels();
+        var offset = (y * width + x) * PixelUtils.BYTES_PER_PIXEL;
+        return (pixels.get(offset + 3) & 0xFF) << 24 | (pixels.get(offset + 2) & 0xFF) << 16
+                | (pixels.get(offset + 1) & 0xFF) << 8 | pixels.get(offset) & 0xFF;
+    }
+
+    /**
+     * Hands the pixels back to the pool. The image must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        var pixels = this.pixels;
+        if (pixels != null) {
+            this.pixels = null;
+            BufferPool.release(pixels);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryUtil;
+import su.asuna.mcef.utils.PixelCopier;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.nglMapBufferRange;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+/**
+ * A lock-free, triple-buffered mailbox between CEF paint callbacks and the render thread.
+ * <p>
+ * The producer (the CEF paint callback) copies only the damaged regions of each frame into an off-heap
+ * staging slot and publishes it. The consumer (the render thread) takes the latest published slot once
+ * per frame; frames published in between are never uploaded, their damage is carried into the next
+ * published slot instead.
+ * <p>
+ * Each slot always holds a complete copy of the frame it was published with: regions damaged while a slot
+ * was owned by someone else are remembered and copied again the next time the producer writes into it.
+ * <p>
+ * With persistent mapping, slots are pixel buffer objects mapped once for their whole lifetime, so the producer
+ * copies straight into memory the GPU reads from and the consumer updates the texture without another copy.
+ * The consumer fences every upload from a slot and waits for that fence before it hands the slot back to
+ * the producer. Slots that cannot be mapped, or that are allocated off the render thread, are off-heap memory.
+ */
+@NullMarked
+final class MCEFFrameMailbox implements Closeable {
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    /**
+     * A staging copy of one frame.
+     */
+    static final class Slot {
+        private @Nullable ByteBuffer buffer;
+        private int pixelBuffer;
+        private long fence;
+        private int width;
+        private int height;
+        private final MCEFDamageRegion damage = new MCEFDamageRegion();
+
+        /**
+         * @return The frame pixels, never null for a slot returned by {@link #acquire()}
+         */
+        @Nullable ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        /**
+         * @return The persistently mapped pixel buffer object holding the frame, or 0 if it is off-heap memory
+         */
+        int getPixelBuffer() {
+            return pixelBuffer;
+        }
+
+        int getWidth() {
+            return width;
+        }
+
+        int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return The regions that changed since the previously consumed frame
+         */
+        MCEFDamageRegion getDamage() {
+            return damage;
+        }
+    }
+
+    private final Slot[] slots = {new Slot(), new Slot(), new Slot()};
+    private final boolean persistent;
+    private final PixelCopier copier;
+    // Index of the published slot, with FRESH set until the consumer takes it
+    private final AtomicInteger ready = new AtomicInteger(1);
+    private volatile boolean closed = false;
+    // Bytes of the damage of the published slot, written by the producer before it publishes
+    private volatile long pendingBytes = 0;
+
+    // Owned by the producer
+    private int back = 0;
+    private final MCEFDamageRegion[] stale = {new MCEFDamageRegion(), new MCEFDamageRegion(), new MCEFDamageRegion()};
+    private final MCEFDamageRegion carry = new MCEFDamageRegion();
+    private final MCEFDamageRegion pending = new MCEFDamageRegion();
+    private final MCEFDamageRegion frame = new MCEFDamageRegion();
+
+    // Owned by the consumer
+    private int front = 2;
+
+    /**
+     * @param persistent whether to stage frames in persistently mapped pixel buffers, see
+     *                   {@link #isPersistentMappingSupported()}
+     * @param copier     copies the damaged regions into the slots
+     */
+    MCEFFrameMailbox(boolean persistent, PixelCopier copier) {
+        this.persistent = persistent;
+        this.copier = copier;
+    }
+
+    /**
+     * Checks if the current context supports persistently mapped buffers and fences.
+     */
+    static boolean isPersistentMappingSupported() {
+        var capabilities = GL.getCapabilities();
+        return (capabilities.OpenGL44 || capabilities.GL_ARB_buffer_storage)
+                && (capabilities.OpenGL32 || capabilities.GL_ARB_sync);
+    }
+
+    boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Copies the damaged regions of a frame into a staging slot and publishes it.
+     * Must only be called from one thread at a time.
+     *
+     * @return false if the mailbox has been closed
+     */
+    boolean publish(ByteBuffer buffer, int width, int height, Rectangle[] dirtyRects) {
+        frame.clear();
+        frame.add(dirtyRects);
+        return publishFrame(buffer, width, height);
+    }
+
+    /**
+     * Copies the damaged regions of a frame into a staging slot and publishes it.
+     * Must only be called from one thread at a time.
+     *
+     * @return false if the mailbox has been closed
+     */
+    boolean publish(ByteBuffer buffer, int width, int height, MCEFDamageRegion damage) {
+        frame.set(damage);
+        return publishFrame(buffer, width, height);
+    }
+
+    private boolean publishFrame(ByteBuffer buffer, int width, int height) {
+        if (closed) return false;
+
+        var slot = slots[back];
+
+        var resized = slot.buffer == null || slot.width != width || slot.height != height;
+        if (resized) {
+            free(slot);
+            allocate(slot, width * height * PixelUtils.BYTES_PER_PIXEL);
+            slot.width = width;
+            slot.height = height;
+            stale[back].clear();
+            stale[back].add(0, 0, width, height);
+        }
+
+        var source = MemoryUtil.memAddress(buffer);
+        var destination = MemoryUtil.memAddress(slot.buffer);
+        copy(stale[back], source, destination, width, height);
+        copy(frame, source, destination, width, height);
+        stale[back].clear();
+
+        for (int i = 0; i < slots.length; i++) {
+            if (i != back) stale[i].add(frame);
+        }
+
+        pending.set(carry);
+        pending.add(frame);
+        if (resized) {
+            pending.clear();
+            pending.add(0, 0, width, height);
+        }
+        slot.damage.set(pending);
+        pendingBytes = getBytes(pending, width, height);
+
+        var previous = ready.getAndSet(back | FRESH);
+        // If the previous frame was never consumed, its damage has to be uploaded with the next one as well
+        if ((previous & FRESH) != 0) {
+            carry.set(pending);
+        } else {
+            carry.set(frame);
+        }
+        back = previous & INDEX_MASK;
+        return true;
+    }
+
+    private void allocate(Slot slot, int bytes) {
+        // Buffer objects can only be created with the context current
+        if (persistent && RenderSystem.isOnRenderThread()) {
+            var pixelBuffer = glGenBuffers();
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+            var flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(GL_PIXEL_UNPACK_BUFFER, bytes, flags);
+            var mapped = nglMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, bytes, flags);
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+
+            if (mapped != 0) {
+                slot.pixelBuffer = pixelBuffer;
+                slot.buffer = MemoryUtil.memByteBuffer(mapped, bytes);
+                return;
+            }
+            glDeleteBuffers(pixelBuffer);
+        }
+        slot.buffer = MemoryUtil.memAlloc(bytes);
+    }
+
+    private static void free(Slot slot) {
+        if (slot.fence != 0) {
+            glDeleteSync(slot.fence);
+            slot.fence = 0;
+        }
+        if (slot.pixelBuffer != 0) {
+            // Deleting the buffer unmaps it
+            glDeleteBuffers(slot.pixelBuffer);
+            slot.pixelBuffer = 0;
+        } else if (slot.buffer != null) {
+            MemoryUtil.memFree(slot.buffer);
+        }
+        slot.buffer = null;
+    }
+
+    private void copy(MCEFDamageRegion region, long source, long destination, int width, int height) {
+        for (int i = 0; i < region.size(); i++) {
+            int x0 = Math.max(0, region.getX(i));
+            int y0 = Math.max(0, region.getY(i));
+            int x1 = Math.min(width, region.getX(i) + region.getWidth(i));
+            int y1 = Math.min(height, region.getY(i) + region.getHeight(i));
+            if (x1 > x0 && y1 > y0) {
+                copier.copyRect(source, destination, width, x0, y0, x1 - x0, y1 - y0);
+            }
+        }
+    }
+
+    private static long getBytes(MCEFDamageRegion region, int width, int height) {
+        long bytes = 0;
+        for (int i = 0; i < region.size(); i++) {
+            long w = Math.min(width, region.getX(i) + region.getWidth(i)) - Math.max(0, region.getX(i));
+            long h = Math.min(height, region.getY(i) + region.getHeight(i)) - Math.max(0, region.getY(i));
+            if (w > 0 && h > 0) bytes += w * h * PixelUtils.BYTES_PER_PIXEL;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return The number of bytes the damage of the frame the consumer has not taken yet covers, or 0 if there
+     * is none. Overlapping damage is counted once per rectangle.
+     */
+    long getPendingBytes() {
+        return hasFrame() ? pendingBytes : 0;
+    }
+
+    /**
+     * Checks if a frame has been published that the consumer has not taken yet.
+     */
+    boolean hasFrame() {
+        return (ready.get() & FRESH) != 0;
+    }
+
+    /**
+     * Takes the latest published frame. The slot stays valid until the next call.
+     *
+     * @return The latest frame, or null if nothing was published since the last call
+     */
+    @Nullable Slot acquire() {
+        if (closed || !hasFrame()) return null;
+
+        // The slot we hand back may be written by the producer right away, the GPU has to be done reading it
+        awaitFence(slots[front]);
+        var previous = ready.getAndSet(front);
+        front = previous & INDEX_MASK;
+        return slots[front];
+    }
+
+    /**
+     * Marks the end of the uploads from a slot returned by {@link #acquire()}. Must be called on the render thread
+     * after the texture update was issued.
+     */
+    void release(Slot slot) {
+        if (slot.pixelBuffer != 0) {
+            if (slot.fence != 0) glDeleteSync(slot.fence);
+            slot.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+
+    private static void awaitFence(Slot slot) {
+        if (slot.fence == 0) return;
+
+        // A frame has passed since the upload was issued, so this practically never blocks
+        int status;
+        do {
+            status = glClientWaitSync(slot.fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1_000_000L);
+        } while (status == GL_TIMEOUT_EXPIRED);
+        glDeleteSync(slot.fence);
+        slot.fence = 0;
+    }
+
+    /**
+     * Frees the staging memory. Must be called on the thread that produces frames, or once production stopped,
+     * and on the render thread if the mailbox is persistent.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Slot slot : slots) {
+            free(slot);
+        }
+    }
+}
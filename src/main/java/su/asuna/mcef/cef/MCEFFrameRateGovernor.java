@@ -0,0 +1,173 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import su.asuna.mcef.MCEF;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static su.asuna.mcef.MCEF.mc;
+
+/**
+ * Adapts the windowless frame rate of every registered browser at runtime.
+ * <p>
+ * A browser keeps painting at the rate it was created with whether it is focused, hidden or idle on a
+ * static page. The governor periodically samples focus, visibility, the observed paint rate and Minecraft's
+ * frame rate, asks its {@link MCEFFrameRatePolicy} for a target and applies it when it changes.
+ * Browsers created with {@link MCEF#createBrowser} are registered automatically.
+ */
+@NullMarked
+public class MCEFFrameRateGovernor {
+
+    /**
+     * How often browsers are evaluated, in milliseconds.
+     */
+    public static final long INTERVAL_MS = 250;
+    /**
+     * Weight of the newest sample in the smoothed paint rate.
+     */
+    private static final double PAINT_RATE_SMOOTHING = 0.5;
+
+    private static final class State {
+        private long lastPaintCount;
+        private long lastSampleNanos = System.nanoTime();
+        private double paintRate;
+        private int frameRate;
+
+        private State(int frameRate) {
+            this.frameRate = frameRate;
+        }
+    }
+
+    private final Map<MCEFBrowser, State> browsers = new ConcurrentHashMap<>();
+    private volatile MCEFFrameRatePolicy policy = MCEFFrameRatePolicy.DEFAULT;
+    private volatile boolean enabled = true;
+    private @Nullable ScheduledFuture<?> task;
+
+    /**
+     * Starts governing a browser.
+     */
+    public synchronized void register(MCEFBrowser browser) {
+        var state = new State(browser.getMaxFrameRate());
+        state.lastPaintCount = browser.getPaintCount();
+        browsers.put(browser, state);
+
+        if (task == null) {
+            task = MCEF.INSTANCE.getScheduler().scheduleAtFixedRate(this::update, INTERVAL_MS, INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops governing a browser. Its frame rate is left as it is.
+     */
+    public synchronized void unregister(MCEFBrowser browser) {
+        browsers.remove(browser);
+
+        if (browsers.isEmpty() && task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * Samples the paint rate of every registered browser and evaluates it. Called every {@value #INTERVAL_MS}
+     * milliseconds.
+     */
+    public void update() {
+        evaluateAll(true);
+    }
+
+    /**
+     * Evaluates every registered browser with the paint rate of the last periodic sample, to react to a change
+     * of focus, visibility or limit immediately.
+     */
+    public void reevaluate() {
+        evaluateAll(false);
+    }
+
+    private void evaluateAll(boolean samplePaintRate) {
+        // Headless browsers are not governed and may run without a client to ask for its frame rate
+        if (!enabled || browsers.isEmpty()) return;
+
+        try {
+            var gameFps = mc().getFps();
+            var now = System.nanoTime();
+            browsers.forEach((browser, state) -> evaluate(browser, state, gameFps, now, samplePaintRate));
+        } catch (Exception e) {
+            MCEF.INSTANCE.LOGGER.error("Failed to update browser frame rates", e);
+        }
+    }
+
+    private synchronized void evaluate(MCEFBrowser browser, State state, int gameFps, long now,
+                                       boolean samplePaintRate) {
+        if (samplePaintRate) {
+            // Paint rates are only sampled over full intervals, a short one would swing the smoothed rate
+            var elapsed = (now - state.lastSampleNanos) / 1_000_000_000.0;
+            if (elapsed <= 0) return;
+
+            var paintCount = browser.getPaintCount();
+            var rate = (paintCount - state.lastPaintCount) / elapsed;
+            state.paintRate = state.paintRate * (1 - PAINT_RATE_SMOOTHING) + rate * PAINT_RATE_SMOOTHING;
+            state.lastPaintCount = paintCount;
+            state.lastSampleNanos = now;
+        }
+
+        var maxFrameRate = browser.getMaxFrameRate();
+        var sample = new MCEFFrameRatePolicy.Sample(browser.isFocused(), browser.isShown(), state.paintRate,
+                gameFps, maxFrameRate, state.frameRate);
+        var limit = browser.getFrameRateLimit() > 0 ? Math.min(maxFrameRate, browser.getFrameRateLimit()) : maxFrameRate;
+        var target = Math.clamp(policy.getTargetFrameRate(sample), 1, Math.max(1, limit));
+
+        if (target != state.frameRate) {
+            state.frameRate = target;
+            browser.setWindowlessFrameRate(target);
+        }
+    }
+
+    /**
+     * @return The frame rate currently applied to the browser, or its maximum if it is not governed
+     */
+    public int getTargetFrameRate(MCEFBrowser browser) {
+        var state = browsers.get(browser);
+        return state == null ? browser.getMaxFrameRate() : state.frameRate;
+    }
+
+    /**
+     * @return The smoothed number of paints per second observed for the browser
+     */
+    public double getPaintRate(MCEFBrowser browser) {
+        var state = browsers.get(browser);
+        return state == null ? 0 : state.paintRate;
+    }
+
+    public MCEFFrameRatePolicy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(MCEFFrameRatePolicy policy) {
+        this.policy = policy;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the governor. Disabling it restores every browser's maximum frame rate.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            browsers.forEach((browser, state) -> {
+                if (state.frameRate != browser.getMaxFrameRate()) {
+                    state.frameRate = browser.getMaxFrameRate();
+                    browser.setWindowlessFrameRate(state.frameRate);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+
+/**
+ * Decides the windowless frame rate of a browser, see {@link MCEFFrameRateGovernor}.
+ */
+@NullMarked
+@FunctionalInterface
+public interface MCEFFrameRatePolicy {
+
+    /**
+     * What the governor observed about a browser since its last evaluation.
+     *
+     * @param focused      Whether the browser has input focus
+     * @param visible      Whether the browser is currently shown, see {@link MCEFBrowser#isShown()}
+     * @param paintRate    Paints per second CEF delivered recently
+     * @param gameFps      Minecraft's current frames per second
+     * @param maxFrameRate The frame rate the browser was created with
+     * @param frameRate    The frame rate currently applied
+     */
+    record Sample(boolean focused, boolean visible, double paintRate, int gameFps, int maxFrameRate, int frameRate) {
+    }
+
+    /**
+     * @param sample The state of the browser
+     * @return The frame rate to apply, clamped by the governor to [1, maxFrameRate] and the browser's
+     * {@link MCEFBrowser#getFrameRateLimit() frame rate limit}
+     */
+    int getTargetFrameRate(Sample sample);
+
+    /**
+     * The policy used unless another one is set.
+     * <ul>
+     *     <li>Hidden browsers paint once per second.</li>
+     *     <li>Focused browsers always paint at their full rate, input latency matters most there.</li>
+     *     <li>Other browsers get twice the rate they actually painted at, so an idle page drops to a few
+     *     frames per second while an animating page doubles its allowance every evaluation until it is
+     *     no longer limited.</li>
+     *     <li>No browser paints faster than Minecraft draws frames.</li>
+     * </ul>
+     */
+    MCEFFrameRatePolicy DEFAULT = sample -> {
+        if (!sample.visible()) {
+            return 1;
+        }
+
+        var target = sample.maxFrameRate();
+        if (!sample.focused()) {
+            var demand = sample.paintRate() < 1.0 ? 5 : Math.max(5, (int) Math.ceil(sample.paintRate() * 2));
+            target = Math.min(target, demand);
+        }
+
+        return Math.min(target, Math.max(sample.gameFps(), 10));
+    };
+}
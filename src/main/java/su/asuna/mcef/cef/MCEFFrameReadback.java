@@ -0,0 +1,178 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.jspecify.annotations.NullMarked;
+import org.lwjgl.system.MemoryUtil;
+import su.asuna.mcef.utils.BufferPool;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * Reads the textures of accelerated browsers back without stalling the render thread.
+ * <p>
+ * A readback copies the requested rectangle into a pixel buffer object, which the GPU does asynchronously, and
+ * fences it. Once per frame, at the start of Minecraft's tick, the fences are polled; finished readbacks are
+ * copied into a {@link MCEFFrameImage} and their futures are completed on the render thread.
+ * <p>
+ * Must only be used on the render thread.
+ */
+@NullMarked
+public final class MCEFFrameReadback {
+
+    private static final class Readback {
+        private final int pixelBuffer;
+        private final long fence;
+        private final int width;
+        private final int height;
+        private final CompletableFuture<MCEFFrameImage> future;
+
+        private Readback(int pixelBuffer, long fence, int width, int height, CompletableFuture<MCEFFrameImage> future) {
+            this.pixelBuffer = pixelBuffer;
+            this.fence = fence;
+            this.width = width;
+            this.height = height;
+            this.future = future;
+        }
+    }
+
+    private final List<Readback> pending = new ArrayList<>();
+    private int framebuffer = 0;
+
+    // Only written by the render thread
+    private volatile long readbacks;
+    private volatile long readBytes;
+
+    /**
+     * Checks if the current context supports pixel buffer objects, buffer mapping and fences.
+     */
+    static boolean isSupported() {
+        return MCEFPixelBufferRing.isSupported();
+    }
+
+    /**
+     * Starts reading a rectangle of a texture back.
+     *
+     * @param textureId The texture, holding the frame at its origin
+     * @param swapped   true if the texture holds BGRA data in its RGBA channels, see {@link MCEFRenderer#isBGRA()}
+     * @param future    Completed with the pixels once the GPU copied them
+     */
+    void read(int textureId, boolean swapped, int x, int y, int width, int height,
+              CompletableFuture<MCEFFrameImage> future) {
+        RenderSystem.assertOnRenderThread();
+
+        if (!isSupported()) {
+            future.completeExceptionally(new UnsupportedOperationException("Pixel buffer readback is not supported"));
+            return;
+        }
+
+        var bytes = (long) width * height * PixelUtils.BYTES_PER_PIXEL;
+        if (bytes > Integer.MAX_VALUE) {
+            // The pixels are handed out in a single buffer
+            future.completeExceptionally(new IllegalArgumentException("Readback of " + bytes + " bytes is too large"));
+            return;
+        }
+        var pixelBuffer = glGenBuffers();
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, pixelBuffer);
+        glBufferData(GL_PIXEL_PACK_BUFFER, bytes, GL_STREAM_READ);
+
+        if (framebuffer == 0) {
+            framebuffer = glGenFramebuffers();
+        }
+        var previousRead = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, textureId, 0);
+        glPixelStorei(GL_PACK_ROW_LENGTH, 0);
+        glPixelStorei(GL_PACK_SKIP_PIXELS, 0);
+        glPixelStorei(GL_PACK_SKIP_ROWS, 0);
+        glPixelStorei(GL_PACK_ALIGNMENT, 4);
+        // Channels of a swapped texture already are in CEF's order
+        glReadPixels(x, y, width, height, swapped ? GL_RGBA : GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, 0, 0);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, previousRead);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+
+        var fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // Make sure the copy starts before the fence is polled
+        glFlush();
+        pending.add(new Readback(pixelBuffer, fence, width, height, future));
+    }
+
+    /**
+     * Completes the readbacks the GPU finished. Called once per frame on the render thread.
+     */
+    public void runFrame() {
+        RenderSystem.assertOnRenderThread();
+
+        if (pending.isEmpty()) return;
+
+        var iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            var readback = iterator.next();
+            var status = glClientWaitSync(readback.fence, 0, 0);
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED) continue;
+
+            iterator.remove();
+            glDeleteSync(readback.fence);
+            try {
+                readback.future.complete(map(readback));
+            } catch (RuntimeException e) {
+                readback.future.completeExceptionally(e);
+            } finally {
+                glDeleteBuffers(readback.pixelBuffer);
+            }
+        }
+    }
+
+    private MCEFFrameImage map(Readback readback) {
+        var bytes = (long) readback.width * readback.height * PixelUtils.BYTES_PER_PIXEL;
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, readback.pixelBuffer);
+        try {
+            var mapped = nglMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, bytes, GL_MAP_READ_BIT);
+            if (mapped == 0) {
+                throw new IllegalStateException("Failed to map the readback buffer");
+            }
+            // Checked to fit an int when the readback was started
+            var pixels = BufferPool.acquire((int) bytes);
+            MemoryUtil.memCopy(mapped, MemoryUtil.memAddress(pixels), bytes);
+            glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+
+            readbacks++;
+            readBytes += bytes;
+            return new MCEFFrameImage(pixels, readback.width, readback.height);
+        } finally {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        }
+    }
+
+    /**
+     * @return The number of readbacks in flight
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return The number of completed readbacks
+     */
+    public long getReadbacks() {
+        return readbacks;
+    }
+
+    /**
+     * @return The number of bytes read back
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+}
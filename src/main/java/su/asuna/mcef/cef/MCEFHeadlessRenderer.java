@@ -0,0 +1,193 @@
+package su.asuna.mcef.cef;
+
+import org.cef.handler.CefAcceleratedPaintInfo;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import su.asuna.mcef.listeners.MCEFFrameSink;
+import su.asuna.mcef.utils.BufferPool;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Composes software paints into an off-heap frame and hands it to a {@link MCEFFrameSink}, instead of uploading
+ * them to a texture.
+ * <p>
+ * Uses neither OpenGL nor Minecraft, so browsers can run where nothing is drawn, e.g. to encode frames, stream
+ * them to other machines or measure paint throughput. The frame holds the main view with the popup on top, as
+ * the texture of an {@link MCEFRenderer} would. Accelerated paints are dropped, browsers using a headless renderer
+ * have to paint in software.
+ * <p>
+ * Passed to a browser when it is constructed, see {@link su.asuna.mcef.MCEF#createHeadlessBrowser}. Must only be
+ * used by the thread that delivers paints.
+ */
+@NullMarked
+public final class MCEFHeadlessRenderer implements MCEFBrowserRenderer {
+
+    private final MCEFFrameSink sink;
+    private final MCEFDamageRegion damage = new MCEFDamageRegion();
+    private @Nullable ByteBuffer frame;
+    private int width = 0;
+    private int height = 0;
+
+    // Only written by the thread that delivers paints
+    private volatile long frames;
+    private volatile long frameBytes;
+    private volatile long droppedPaints;
+
+    public MCEFHeadlessRenderer(MCEFFrameSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void onPaint(ByteBuffer buffer, int width, int height) {
+        resize(width, height);
+        if (frame == null) return;
+
+        MemoryUtil.memCopy(MemoryUtil.memAddress(buffer), MemoryUtil.memAddress(frame),
+                (long) width * height * PixelUtils.BYTES_PER_PIXEL);
+        damage.add(0, 0, width, height);
+    }
+
+    @Override
+    public void onPaint(ByteBuffer buffer, int bufferWidth, MCEFPaintPlanner plan, int offsetX, int offsetY) {
+        var source = MemoryUtil.memAddress(buffer);
+        for (int i = 0; i < plan.size(); i++) {
+            var x = plan.getX(i);
+            var y = plan.getY(i);
+            copy(source, bufferWidth, x, y, offsetX + x, offsetY + y, plan.getWidth(i), plan.getHeight(i));
+        }
+    }
+
+    /**
+     * Drops the paint, shared textures cannot be read without OpenGL.
+     */
+    @Override
+    public void onAcceleratedPaint(CefAcceleratedPaintInfo info, int width, int height) {
+        droppedPaints++;
+    }
+
+    /**
+     * Copies a rectangle of a source into the frame, clipped to the frame, and adds it to the damage.
+     */
+    private void copy(long source, int sourceWidth, int sourceX, int sourceY, int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x1 <= x0 || y1 <= y0 || frame == null) return;
+
+        var sourceRowBytes = (long) sourceWidth * PixelUtils.BYTES_PER_PIXEL;
+        var rowBytes = (long) this.width * PixelUtils.BYTES_PER_PIXEL;
+        var length = (long) (x1 - x0) * PixelUtils.BYTES_PER_PIXEL;
+        var from = source + (sourceY + y0 - y) * sourceRowBytes + (long) (sourceX + x0 - x) * PixelUtils.BYTES_PER_PIXEL;
+        var to = MemoryUtil.memAddress(frame) + y0 * rowBytes + (long) x0 * PixelUtils.BYTES_PER_PIXEL;
+        for (int row = y0; row < y1; row++) {
+            MemoryUtil.memCopy(from, to, length);
+            from += sourceRowBytes;
+            to += rowBytes;
+        }
+        damage.add(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * Hands the frame to the sink if the paint changed it.
+     */
+    @Override
+    public void finishFrame() {
+        if (damage.isEmpty() || frame == null) return;
+
+        long bytes = 0;
+        for (int i = 0; i < damage.size(); i++) {
+            bytes += (long) damage.getWidth(i) * damage.getHeight(i) * PixelUtils.BYTES_PER_PIXEL;
+        }
+        frames++;
+        frameBytes += bytes;
+        try {
+            sink.onFrame(frame, width, height, damage);
+        } finally {
+            damage.clear();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException If the frame would not fit in a single buffer
+     */
+    @Override
+    public void resize(int width, int height) {
+        var bytes = (long) width * height * PixelUtils.BYTES_PER_PIXEL;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Frame of " + width + "x" + height + " is too large");
+        }
+        if (frame == null || frame.capacity() < bytes) {
+            if (frame != null) BufferPool.release(frame);
+            frame = bytes > 0 ? BufferPool.acquire((int) bytes) : null;
+        } else {
+            frame.clear().limit((int) bytes);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public boolean isReady() {
+        return frame != null;
+    }
+
+    public MCEFFrameSink getSink() {
+        return sink;
+    }
+
+    /**
+     * @return The composed frame, only valid until the next paint, or null if nothing was painted yet
+     */
+    public @Nullable ByteBuffer getFrame() {
+        return frame;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The number of frames handed to the sink
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return The number of bytes the frames handed to the sink updated
+     */
+    public long getFrameBytes() {
+        return frameBytes;
+    }
+
+    /**
+     * @return The number of accelerated paints that were dropped
+     */
+    public long getDroppedPaints() {
+        return droppedPaints;
+    }
+
+    /**
+     * Frees the frame.
+     */
+    @Override
+    public void close() {
+        if (frame != null) {
+            BufferPool.release(frame);
+            frame = null;
+        }
+        damage.clear();
+        width = 0;
+        height = 0;
+    }
+}
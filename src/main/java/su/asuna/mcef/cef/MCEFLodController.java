@@ -0,0 +1,116 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Picks a level of detail for browsers drawn in the world, from how large they appear on screen.
+ * <p>
+ * Each {@link Tier} applies a render resolution, via {@link MCEFBrowser#setRenderScale(double)}, and a frame rate
+ * limit, via {@link MCEFBrowser#setFrameRateLimit(int)}. A screen far away from the camera then costs about as much
+ * as the pixels it covers. A browser only moves to a higher tier once its projected size exceeds the tier's
+ * threshold by the hysteresis margin, and only drops below once it falls short by the margin, so a screen at
+ * the boundary does not flap between tiers.
+ */
+@NullMarked
+public class MCEFLodController {
+
+    /**
+     * A level of detail.
+     *
+     * @param minProjectedSize The projected size in screen pixels from which the tier applies
+     * @param renderScale      The render scale of the tier
+     * @param frameRateLimit   The frame rate limit of the tier, 0 for none
+     */
+    public record Tier(int minProjectedSize, double renderScale, int frameRateLimit) {
+    }
+
+    public static final List<Tier> DEFAULT_TIERS = List.of(
+            new Tier(0, 0.25, 5),
+            new Tier(160, 0.5, 15),
+            new Tier(400, 0.75, 30),
+            new Tier(800, 1.0, 0)
+    );
+    public static final double DEFAULT_HYSTERESIS = 0.15;
+
+    private final List<Tier> tiers;
+    private final double hysteresis;
+    private final Map<MCEFBrowser, Integer> currentTiers = new WeakHashMap<>();
+
+    public MCEFLodController() {
+        this(DEFAULT_TIERS, DEFAULT_HYSTERESIS);
+    }
+
+    /**
+     * @param tiers      The levels of detail, in any order
+     * @param hysteresis The fraction of a threshold the projected size has to pass it by to change tiers
+     */
+    public MCEFLodController(List<Tier> tiers, double hysteresis) {
+        if (tiers.isEmpty()) {
+            throw new IllegalArgumentException("At least one tier is required");
+        }
+        this.tiers = tiers.stream().sorted(Comparator.comparingInt(Tier::minProjectedSize)).toList();
+        this.hysteresis = Math.max(0, hysteresis);
+    }
+
+    /**
+     * Updates the level of detail of a browser, e.g. once per frame while it is drawn.
+     *
+     * @param browser       The browser
+     * @param projectedSize The larger side of the browser's projected bounds in screen pixels
+     * @return The tier the browser is at now
+     */
+    public synchronized Tier update(MCEFBrowser browser, double projectedSize) {
+        browser.setScreenSize(projectedSize);
+        var current = currentTiers.get(browser);
+        var tier = current == null ? select(projectedSize) : current;
+
+        while (tier + 1 < tiers.size() && projectedSize >= tiers.get(tier + 1).minProjectedSize() * (1 + hysteresis)) {
+            tier++;
+        }
+        while (tier > 0 && projectedSize < tiers.get(tier).minProjectedSize() * (1 - hysteresis)) {
+            tier--;
+        }
+
+        if (current == null || current != tier) {
+            currentTiers.put(browser, tier);
+            apply(browser, tiers.get(tier));
+        }
+        return tiers.get(tier);
+    }
+
+    private int select(double projectedSize) {
+        var tier = 0;
+        while (tier + 1 < tiers.size() && projectedSize >= tiers.get(tier + 1).minProjectedSize()) {
+            tier++;
+        }
+        return tier;
+    }
+
+    private static void apply(MCEFBrowser browser, Tier tier) {
+        browser.setRenderScale(tier.renderScale());
+        browser.setFrameRateLimit(tier.frameRateLimit());
+    }
+
+    /**
+     * Stops controlling a browser and restores its full resolution and frame rate.
+     */
+    public synchronized void reset(MCEFBrowser browser) {
+        if (currentTiers.remove(browser) != null) {
+            browser.setRenderScale(1.0);
+            browser.setFrameRateLimit(0);
+        }
+    }
+
+    public List<Tier> getTiers() {
+        return tiers;
+    }
+
+    public double getHysteresis() {
+        return hysteresis;
+    }
+}
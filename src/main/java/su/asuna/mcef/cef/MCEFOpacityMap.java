@@ -0,0 +1,111 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+import su.asuna.mcef.utils.PixelUtils;
+
+/**
+ * Tracks which parts of a software frame are fully opaque, in cells of {@value #CELL_SIZE} pixels.
+ * <p>
+ * Only the dirty rectangles of a paint are scanned. A cell that is only partly repainted can stay opaque,
+ * but it cannot become opaque, since the rest of it was not looked at; it is corrected by the next paint
+ * that covers it. The map therefore errs towards reporting translucency, which only costs blending.
+ */
+@NullMarked
+final class MCEFOpacityMap {
+
+    static final int CELL_SIZE = 64;
+
+    private boolean[] opaque = new boolean[0];
+    private int columns = 0;
+    private int width = 0;
+    private int height = 0;
+    private int translucentCells = 0;
+
+    /**
+     * Lays the map out for a frame of the given size. Every cell is considered translucent afterwards.
+     */
+    void resize(int width, int height) {
+        if (width == this.width && height == this.height) return;
+
+        this.width = width;
+        this.height = height;
+        this.columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        var rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        opaque = new boolean[columns * rows];
+        translucentCells = opaque.length;
+    }
+
+    /**
+     * Scans a repainted rectangle of the frame.
+     *
+     * @param pixels The address of the frame, with a row length of the frame width
+     */
+    void scan(long pixels, int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x1 <= x0 || y1 <= y0) return;
+
+        for (int row = y0 / CELL_SIZE; row <= (y1 - 1) / CELL_SIZE; row++) {
+            int cy0 = row * CELL_SIZE;
+            int cy1 = Math.min(cy0 + CELL_SIZE, this.height);
+            int sy0 = Math.max(y0, cy0);
+            int sy1 = Math.min(y1, cy1);
+            for (int column = x0 / CELL_SIZE; column <= (x1 - 1) / CELL_SIZE; column++) {
+                int cx0 = column * CELL_SIZE;
+                int cx1 = Math.min(cx0 + CELL_SIZE, this.width);
+                int sx0 = Math.max(x0, cx0);
+                int sx1 = Math.min(x1, cx1);
+
+                var index = row * columns + column;
+                var covered = sx0 == cx0 && sx1 == cx1 && sy0 == cy0 && sy1 == cy1;
+                set(index, (covered || opaque[index])
+                        && PixelUtils.isOpaque(pixels, this.width, sx0, sy0, sx1 - sx0, sy1 - sy0));
+            }
+        }
+    }
+
+    /**
+     * Marks a rectangle as translucent without scanning it, e.g. where a popup is drawn.
+     */
+    void markTranslucent(int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x1 <= x0 || y1 <= y0) return;
+
+        for (int row = y0 / CELL_SIZE; row <= (y1 - 1) / CELL_SIZE; row++) {
+            for (int column = x0 / CELL_SIZE; column <= (x1 - 1) / CELL_SIZE; column++) {
+                set(row * columns + column, false);
+            }
+        }
+    }
+
+    private void set(int index, boolean value) {
+        if (opaque[index] == value) return;
+        opaque[index] = value;
+        translucentCells += value ? -1 : 1;
+    }
+
+    boolean isOpaque() {
+        return opaque.length > 0 && translucentCells == 0;
+    }
+
+    boolean isOpaque(int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x1 <= x0 || y1 <= y0) return false;
+        if (translucentCells == 0) return true;
+
+        for (int row = y0 / CELL_SIZE; row <= (y1 - 1) / CELL_SIZE; row++) {
+            for (int column = x0 / CELL_SIZE; column <= (x1 - 1) / CELL_SIZE; column++) {
+                if (!opaque[row * columns + column]) return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,365 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+
+import java.awt.*;
+
+/**
+ * Plans how the dirty rectangles of a software paint are uploaded to the browser texture.
+ * <p>
+ * CEF frequently reports dozens of small, overlapping rectangles per frame, and every upload
+ * costs a driver call on the render thread. The planner merges rectangles whose union wastes
+ * fewer pixels than the call it saves, then uses a simple cost model to choose between
+ * uploading every merged rectangle, merged row bands, a single bounding box or the full frame.
+ * <p>
+ * Planned regions are stored as plain ints so that planning does not allocate per frame.
+ */
+@NullMarked
+public final class MCEFPaintPlanner {
+
+    /**
+     * The way the dirty region of a frame is uploaded.
+     */
+    public enum Strategy {
+        /**
+         * Every merged dirty rectangle is uploaded on its own.
+         */
+        PER_RECT,
+        /**
+         * Rectangles that share rows are uploaded as horizontal bands.
+         */
+        ROW_BANDS,
+        /**
+         * The bounding box of all dirty rectangles is uploaded with a single call.
+         */
+        BOUNDING_BOX,
+        /**
+         * The whole frame is uploaded with a single call.
+         */
+        FULL_FRAME
+    }
+
+    /**
+     * Estimated fixed cost of one upload call (texture bind, pixel store state and the call itself),
+     * expressed in bytes of pixel data that could be transferred in the same time.
+     */
+    public static final long DEFAULT_CALL_COST = 16 * 1024;
+    /**
+     * Relative cost of a byte gathered from a partial row, compared to a byte of a contiguous full-width upload.
+     */
+    private static final double STRIDED_BYTE_COST = 1.125;
+
+    private long callCost = DEFAULT_CALL_COST;
+
+    // Regions are stored as x, y, width, height quadruples
+    private int[] merged = new int[64];
+    private int mergedCount = 0;
+    private int[] bands = new int[64];
+    private int bandCount = 0;
+    private final int[] single = new int[4];
+
+    private int[] planned = single;
+    private int plannedCount = 0;
+
+    private Strategy lastStrategy = Strategy.FULL_FRAME;
+    private int lastInputCount = 0;
+    private long lastUploadBytes = 0;
+
+    /**
+     * Plans the upload of a frame.
+     *
+     * @param dirtyRects  The dirty rectangles reported by CEF
+     * @param frameWidth  The width of the frame
+     * @param frameHeight The height of the frame
+     * @return The chosen strategy. The planned regions are available through {@link #size()} and the getters.
+     */
+    public Strategy plan(Rectangle[] dirtyRects, int frameWidth, int frameHeight) {
+        mergedCount = 0;
+        for (Rectangle rect : dirtyRects) {
+            addClipped(rect.x, rect.y, rect.width, rect.height, frameWidth, frameHeight);
+        }
+        lastInputCount = dirtyRects.length;
+        return choose(frameWidth, frameHeight);
+    }
+
+    /**
+     * Plans the upload of a single region of a frame.
+     */
+    public Strategy plan(int x, int y, int width, int height, int frameWidth, int frameHeight) {
+        mergedCount = 0;
+        addClipped(x, y, width, height, frameWidth, frameHeight);
+        lastInputCount = 1;
+        return choose(frameWidth, frameHeight);
+    }
+
+    /**
+     * Plans the upload of an accumulated damage region.
+     */
+    Strategy plan(MCEFDamageRegion damage, int frameWidth, int frameHeight) {
+        mergedCount = 0;
+        for (int i = 0; i < damage.size(); i++) {
+            addClipped(damage.getX(i), damage.getY(i), damage.getWidth(i), damage.getHeight(i), frameWidth, frameHeight);
+        }
+        lastInputCount = damage.size();
+        return choose(frameWidth, frameHeight);
+    }
+
+    private Strategy choose(int frameWidth, int frameHeight) {
+        if (mergedCount == 0) {
+            plannedCount = 0;
+            lastUploadBytes = 0;
+            return lastStrategy;
+        }
+
+        mergeRects(frameWidth);
+
+        // Bounding box of everything
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = 0, maxY = 0;
+        double perRectCost = 0;
+        for (int i = 0; i < mergedCount; i++) {
+            int o = i << 2;
+            minX = Math.min(minX, merged[o]);
+            minY = Math.min(minY, merged[o + 1]);
+            maxX = Math.max(maxX, merged[o] + merged[o + 2]);
+            maxY = Math.max(maxY, merged[o + 1] + merged[o + 3]);
+            perRectCost += cost(merged[o + 2], merged[o + 3], frameWidth);
+        }
+
+        buildBands();
+        double bandCost = 0;
+        for (int i = 0; i < bandCount; i++) {
+            int o = i << 2;
+            bandCost += cost(bands[o + 2], bands[o + 3], frameWidth);
+        }
+
+        double boxCost = cost(maxX - minX, maxY - minY, frameWidth);
+        double fullCost = cost(frameWidth, frameHeight, frameWidth);
+
+        // Ties are resolved in favour of fewer calls
+        var strategy = Strategy.FULL_FRAME;
+        double best = fullCost;
+        if (boxCost < best) {
+            strategy = Strategy.BOUNDING_BOX;
+            best = boxCost;
+        }
+        if (bandCount > 1 && bandCost < best) {
+            strategy = Strategy.ROW_BANDS;
+            best = bandCost;
+        }
+        if (mergedCount > bandCount && perRectCost < best) {
+            strategy = Strategy.PER_RECT;
+        }
+
+        switch (strategy) {
+            case FULL_FRAME -> setSingle(0, 0, frameWidth, frameHeight);
+            case BOUNDING_BOX -> setSingle(minX, minY, maxX - minX, maxY - minY);
+            case ROW_BANDS -> {
+                planned = bands;
+                plannedCount = bandCount;
+            }
+            case PER_RECT -> {
+                planned = merged;
+                plannedCount = mergedCount;
+            }
+        }
+
+        long bytes = 0;
+        for (int i = 0; i < plannedCount; i++) {
+            bytes += (long) getWidth(i) * getHeight(i) * 4;
+        }
+        lastUploadBytes = bytes;
+        lastStrategy = strategy;
+        return strategy;
+    }
+
+    private double cost(int width, int height, int frameWidth) {
+        double bytes = (double) width * height * 4;
+        return callCost + (width == frameWidth ? bytes : bytes * STRIDED_BYTE_COST);
+    }
+
+    private void addClipped(int x, int y, int width, int height, int frameWidth, int frameHeight) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(frameWidth, x + width);
+        int y1 = Math.min(frameHeight, y + height);
+        if (x1 <= x0 || y1 <= y0) return;
+
+        merged = ensureCapacity(merged, mergedCount + 1);
+        int o = mergedCount << 2;
+        merged[o] = x0;
+        merged[o + 1] = y0;
+        merged[o + 2] = x1 - x0;
+        merged[o + 3] = y1 - y0;
+        mergedCount++;
+    }
+
+    /**
+     * Merges pairs of rectangles as long as the cost of the pixels their union wastes is lower than
+     * the cost of the upload call that merging saves. Overlapping and adjacent rectangles of similar
+     * shape are always merged this way.
+     */
+    private void mergeRects(int frameWidth) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < mergedCount && !changed; i++) {
+                for (int j = i + 1; j < mergedCount; j++) {
+                    int a = i << 2, b = j << 2;
+                    int ax0 = merged[a], ay0 = merged[a + 1], ax1 = ax0 + merged[a + 2], ay1 = ay0 + merged[a + 3];
+                    int bx0 = merged[b], by0 = merged[b + 1], bx1 = bx0 + merged[b + 2], by1 = by0 + merged[b + 3];
+
+                    int ux0 = Math.min(ax0, bx0), uy0 = Math.min(ay0, by0);
+                    int ux1 = Math.max(ax1, bx1), uy1 = Math.max(ay1, by1);
+
+                    int ix = Math.max(0, Math.min(ax1, bx1) - Math.max(ax0, bx0));
+                    int iy = Math.max(0, Math.min(ay1, by1) - Math.max(ay0, by0));
+
+                    double separate = cost(ax1 - ax0, ay1 - ay0, frameWidth) + cost(bx1 - bx0, by1 - by0, frameWidth)
+                            - (double) ix * iy * 4;
+                    double union = cost(ux1 - ux0, uy1 - uy0, frameWidth);
+                    if (union > separate) continue;
+
+                    merged[a] = ux0;
+                    merged[a + 1] = uy0;
+                    merged[a + 2] = ux1 - ux0;
+                    merged[a + 3] = uy1 - uy0;
+
+                    // Remove j by moving the last rectangle into its place
+                    int last = (mergedCount - 1) << 2;
+                    System.arraycopy(merged, last, merged, b, 4);
+                    mergedCount--;
+                    changed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sweeps the merged rectangles from top to bottom and joins those whose rows overlap or touch into bands.
+     */
+    private void buildBands() {
+        bands = ensureCapacity(bands, mergedCount);
+        System.arraycopy(merged, 0, bands, 0, mergedCount << 2);
+
+        // Insertion sort by y, the rectangle count is small
+        for (int i = 1; i < mergedCount; i++) {
+            int o = i << 2;
+            int x = bands[o], y = bands[o + 1], w = bands[o + 2], h = bands[o + 3];
+            int j = i - 1;
+            while (j >= 0 && bands[(j << 2) + 1] > y) {
+                System.arraycopy(bands, j << 2, bands, (j + 1) << 2, 4);
+                j--;
+            }
+            int t = (j + 1) << 2;
+            bands[t] = x;
+            bands[t + 1] = y;
+            bands[t + 2] = w;
+            bands[t + 3] = h;
+        }
+
+        bandCount = 0;
+        int bx0 = 0, by0 = 0, bx1 = 0, by1 = 0;
+        for (int i = 0; i < mergedCount; i++) {
+            int o = i << 2;
+            int x0 = bands[o], y0 = bands[o + 1], x1 = x0 + bands[o + 2], y1 = y0 + bands[o + 3];
+            if (i > 0 && y0 <= by1) {
+                bx0 = Math.min(bx0, x0);
+                bx1 = Math.max(bx1, x1);
+                by1 = Math.max(by1, y1);
+                continue;
+            }
+            if (i > 0) {
+                writeBand(bx0, by0, bx1, by1);
+            }
+            bx0 = x0;
+            by0 = y0;
+            bx1 = x1;
+            by1 = y1;
+        }
+        writeBand(bx0, by0, bx1, by1);
+    }
+
+    private void writeBand(int x0, int y0, int x1, int y1) {
+        // Bands are written in place, never ahead of the rectangle being read
+        int o = bandCount << 2;
+        bands[o] = x0;
+        bands[o + 1] = y0;
+        bands[o + 2] = x1 - x0;
+        bands[o + 3] = y1 - y0;
+        bandCount++;
+    }
+
+    private void setSingle(int x, int y, int width, int height) {
+        single[0] = x;
+        single[1] = y;
+        single[2] = width;
+        single[3] = height;
+        planned = single;
+        plannedCount = 1;
+    }
+
+    private static int[] ensureCapacity(int[] array, int rects) {
+        if (array.length >= rects << 2) return array;
+        var grown = new int[Math.max(array.length << 1, rects << 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    /**
+     * @return The number of regions to upload for the last planned frame
+     */
+    public int size() {
+        return plannedCount;
+    }
+
+    public int getX(int index) {
+        return planned[index << 2];
+    }
+
+    public int getY(int index) {
+        return planned[(index << 2) + 1];
+    }
+
+    public int getWidth(int index) {
+        return planned[(index << 2) + 2];
+    }
+
+    public int getHeight(int index) {
+        return planned[(index << 2) + 3];
+    }
+
+    /**
+     * @return The strategy chosen for the last planned frame
+     */
+    public Strategy getLastStrategy() {
+        return lastStrategy;
+    }
+
+    /**
+     * @return The number of dirty rectangles CEF reported for the last planned frame
+     */
+    public int getLastInputCount() {
+        return lastInputCount;
+    }
+
+    /**
+     * @return The number of bytes uploaded for the last planned frame
+     */
+    public long getLastUploadBytes() {
+        return lastUploadBytes;
+    }
+
+    public long getCallCost() {
+        return callCost;
+    }
+
+    /**
+     * Tunes the cost model. Higher values favour fewer, larger uploads.
+     *
+     * @param callCost The estimated cost of one upload call in bytes of pixel data
+     */
+    public void setCallCost(long callCost) {
+        this.callCost = Math.max(0, callCost);
+    }
+}
@@ -0,0 +1,140 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.opengl.GlStateManager;
+import org.jspecify.annotations.NullMarked;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+
+/**
+ * A ring of pixel buffer objects used to stream texture uploads.
+ * <p>
+ * Dirty regions are packed into the next buffer of the ring and the texture is updated from that buffer,
+ * so the driver can transfer the data asynchronously instead of copying it out of client memory
+ * before {@code glTexSubImage2D} returns. Each buffer is guarded by a fence; a buffer the GPU is still
+ * reading from is never waited on, the upload is reported as failed instead so the caller can fall back
+ * to a direct upload.
+ */
+@NullMarked
+final class MCEFPixelBufferRing implements Closeable {
+
+    static final int DEFAULT_SIZE = 3;
+
+    private final int[] buffers;
+    private final long[] fences;
+    private final long[] capacities;
+    private int index = 0;
+
+    MCEFPixelBufferRing(int size) {
+        this.buffers = new int[size];
+        this.fences = new long[size];
+        this.capacities = new long[size];
+        glGenBuffers(buffers);
+    }
+
+    /**
+     * Checks if the current context supports pixel buffer objects, buffer mapping and fences.
+     */
+    static boolean isSupported() {
+        var capabilities = GL.getCapabilities();
+        return (capabilities.OpenGL21 || capabilities.GL_ARB_pixel_buffer_object)
+                && (capabilities.OpenGL30 || capabilities.GL_ARB_map_buffer_range)
+                && (capabilities.OpenGL32 || capabilities.GL_ARB_sync);
+    }
+
+    /**
+     * Streams the planned regions of the buffer into the next pixel buffer of the ring and
+     * updates the currently bound texture from it.
+     *
+     * @return false if the next pixel buffer is still in use, in which case nothing was uploaded
+     */
+    boolean upload(ByteBuffer buffer, int bufferWidth, MCEFPaintPlanner plan, int offsetX, int offsetY) {
+        var fence = fences[index];
+        if (fence != 0) {
+            var status = glClientWaitSync(fence, 0, 0);
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED) {
+                return false;
+            }
+            glDeleteSync(fence);
+            fences[index] = 0;
+        }
+
+        var required = plan.getLastUploadBytes();
+        if (required <= 0) {
+            return true;
+        }
+
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, buffers[index]);
+        if (capacities[index] < required) {
+            glBufferData(GL_PIXEL_UNPACK_BUFFER, required, GL_STREAM_DRAW);
+            capacities[index] = required;
+        }
+
+        var mapped = nglMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, required,
+                GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == 0) {
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+            return false;
+        }
+
+        // Pack the regions tightly, one after the other
+        var source = MemoryUtil.memAddress(buffer);
+        var stride = (long) bufferWidth * 4;
+        var offset = 0L;
+        for (int i = 0; i < plan.size(); i++) {
+            var x = plan.getX(i);
+            var y = plan.getY(i);
+            var rowBytes = (long) plan.getWidth(i) * 4;
+            var height = plan.getHeight(i);
+            var from = source + y * stride + x * 4L;
+            if (rowBytes == stride) {
+                MemoryUtil.memCopy(from, mapped + offset, rowBytes * height);
+            } else {
+                for (int row = 0; row < height; row++) {
+                    MemoryUtil.memCopy(from + row * stride, mapped + offset + row * rowBytes, rowBytes);
+                }
+            }
+            offset += rowBytes * height;
+        }
+        glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+
+        GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, 0);
+        GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
+        GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, 0);
+        offset = 0L;
+        for (int i = 0; i < plan.size(); i++) {
+            var width = plan.getWidth(i);
+            var height = plan.getHeight(i);
+            glTexSubImage2D(GL_TEXTURE_2D, 0, offsetX + plan.getX(i), offsetY + plan.getY(i), width, height,
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, offset);
+            offset += (long) width * height * 4;
+        }
+
+        fences[index] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+        index = (index + 1) % buffers.length;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < buffers.length; i++) {
+            if (fences[i] != 0) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+            capacities[i] = 0;
+        }
+        glDeleteBuffers(buffers);
+    }
+}
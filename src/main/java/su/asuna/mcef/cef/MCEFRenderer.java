@@ -6,7 +6,6 @@ import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.textures.GpuSampler;
 import com.mojang.blaze3d.textures.GpuTexture;
 import com.mojang.blaze3d.textures.GpuTextureView;
-import com.mojang.blaze3d.textures.TextureFormat;
 import net.minecraft.client.gui.render.TextureSetup;
 import net.minecraft.resources.Identifier;
 import org.cef.handler.CefAcceleratedPaintInfo;
@@ -18,11 +17,13 @@ import org.lwjgl.egl.EGL14;
 import org.lwjgl.egl.EXTImageDMABufImport;
 import org.lwjgl.egl.KHRImageBase;
 import org.lwjgl.opengl.EXTEGLImageStorage;
-import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
 import su.asuna.mcef.MCEF;
+import su.asuna.mcef.listeners.MCEFFrameListener;
+import su.asuna.mcef.listeners.MCEFTextureChangeListener;
 import su.asuna.mcef.utils.EglUtils;
 
-import java.io.Closeable;
+import java.awt.*;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.Arrays;
@@ -34,10 +35,27 @@ import static org.lwjgl.opengl.EXTMemoryObjectWin32.glImportMemoryWin32HandleEXT
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.GL_BGRA;
 import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
 import static su.asuna.mcef.MCEF.mc;
 
 @NullMarked
-public class MCEFRenderer implements Closeable {
+public class MCEFRenderer implements MCEFBrowserRenderer {
+
+    /**
+     * How software paints are transferred to the texture.
+     */
+    public enum UploadMode {
+        /**
+         * Pixels are uploaded straight from the paint buffer. The driver copies them synchronously.
+         */
+        DIRECT,
+        /**
+         * Pixels are streamed through a ring of pixel buffer objects, so the texture update is asynchronous.
+         * Falls back to {@link #DIRECT} when the required OpenGL features are missing.
+         */
+        PIXEL_BUFFER
+    }
 
     private final boolean transparent;
     private @Nullable GpuTexture texture = null;
@@ -50,11 +68,54 @@ public class MCEFRenderer implements Closeable {
     private @Nullable MCEFDirectTexture directTexture;
     private @Nullable MCEFDirectTexture directSharedTexture;
     private boolean textureRegistered = false;
+    private @Nullable MCEFTextureChangeListener textureChangeListener;
+
+    // Regions uploaded since the last finished frame, and since the dirty region was last cleared
+    private final MCEFDamageRegion frameDamage = new MCEFDamageRegion();
+    /**
+     * The most attributes a dmabuf import needs: three pairs for the frame, five pairs per plane with
+     * modifiers and the terminator.
+     */
+    static final int MAX_DMABUF_ATTRIBS = 6 + CefConstants.DMA_BUF_PLANE_FD_ATTRS.length * 10 + 1;
+    private @Nullable IntBuffer dmabufAttribs;
+    private final MCEFDamageRegion dirtyRegion = new MCEFDamageRegion();
+    private volatile long frameVersion = 0;
+    private @Nullable MCEFFrameListener frameListener;
 
     private boolean isBGRA = false;
     private boolean unpainted = true;
     private boolean isAccelerated = false;
 
+    /**
+     * Granularity of the software texture storage when capacity buckets are enabled.
+     */
+    public static final int CAPACITY_BUCKET = 256;
+    private boolean capacityBuckets = false;
+    private int textureCapacityWidth = 0;
+    private int textureCapacityHeight = 0;
+
+    /**
+     * Tile size used when a frame exceeds the maximum texture size and no tile size was set.
+     */
+    public static final int DEFAULT_TILE_SIZE = 1024;
+    private int tileSize = 0;
+    private @Nullable MCEFTileGrid tileGrid;
+
+    private final MCEFOpacityMap opacityMap = new MCEFOpacityMap();
+
+    // Holds the old content while a shifted frame is moved within the texture
+    private int scratchTextureId = 0;
+    private int scratchWidth = 0;
+    private int scratchHeight = 0;
+    private boolean opacityTracking = true;
+
+    private @Nullable MCEFTextureAtlas atlas;
+    private MCEFTextureAtlas.@Nullable Region atlasRegion;
+
+    private UploadMode uploadMode = UploadMode.DIRECT;
+    private @Nullable MCEFPixelBufferRing pixelBufferRing;
+    private boolean pixelBufferUnsupported = false;
+
     protected MCEFRenderer(boolean transparent) {
         this.transparent = transparent;
         // Generate a unique ResourceLocation for this renderer
@@ -68,7 +129,7 @@ public class MCEFRenderer implements Closeable {
     public void initialize() {
         // Create and register the direct texture wrapper with Minecraft's TextureManager
         directTexture = new MCEFDirectTexture();
-        mc.getTextureManager().register(identifier, directTexture);
+        mc().getTextureManager().register(identifier, directTexture);
         textureRegistered = true;
         directSharedTexture = new MCEFDirectTexture();
     }
@@ -99,6 +160,28 @@ public class MCEFRenderer implements Closeable {
         }
     }
 
+    public @Nullable MCEFTextureChangeListener getTextureChangeListener() {
+        return textureChangeListener;
+    }
+
+    /**
+     * Sets a listener that is called when the texture setup returned by {@link #getTextureSetup()} is replaced,
+     * i.e. when the texture is reallocated, resized or switches between software and accelerated rendering,
+     * or when the tiles of a tiled frame are laid out anew.
+     * Paints into the same texture do not trigger it, so consumers can cache the setup until it is called.
+     */
+    public void setTextureChangeListener(@Nullable MCEFTextureChangeListener textureChangeListener) {
+        this.textureChangeListener = textureChangeListener;
+    }
+
+    private void fireTextureChange() {
+        var listener = this.textureChangeListener;
+        var textureSetup = getTextureSetup();
+        if (listener != null && textureSetup != null) {
+            listener.onTextureChange(textureSetup);
+        }
+    }
+
     private @Nullable MCEFDirectTexture getDirectTexture() {
         return isAccelerated ? directSharedTexture : directTexture;
     }
@@ -147,7 +230,8 @@ public class MCEFRenderer implements Closeable {
      * Check if the texture is ready for rendering with GuiGraphics
      */
     public boolean isTextureReady() {
-        return isAccelerated ? sharedTexture != null : texture != null && textureRegistered && directTexture != null;
+        return isAccelerated ? sharedTexture != null
+                : (texture != null || tileGrid != null) && textureRegistered && directTexture != null;
     }
 
     /**
@@ -159,7 +243,7 @@ public class MCEFRenderer implements Closeable {
             return false;
         }
 
-        if (texture == null) {
+        if (texture == null && tileGrid == null) {
             return false;
         }
 
@@ -174,6 +258,21 @@ public class MCEFRenderer implements Closeable {
         return textureHeight;
     }
 
+    @Override
+    public boolean isReady() {
+        return isTextureReady();
+    }
+
+    @Override
+    public int getWidth() {
+        return textureWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return textureHeight;
+    }
+
     /**
      * Determines if the renderer is transparent.
      */
@@ -181,6 +280,76 @@ public class MCEFRenderer implements Closeable {
         return transparent;
     }
 
+    /**
+     * Checks if every pixel of the current frame is fully opaque, so it can be drawn without blending.
+     * Always true for renderers that are not transparent. Accelerated frames of transparent renderers
+     * cannot be inspected and are never reported as opaque.
+     */
+    public boolean isOpaque() {
+        return !transparent || (opacityTracking && !isAccelerated && opacityMap.isOpaque());
+    }
+
+    /**
+     * Checks if every pixel of a rectangle of the current frame is fully opaque, see {@link #isOpaque()}.
+     * Consumers can draw opaque parts of a transparent browser without blending.
+     */
+    public boolean isOpaque(int x, int y, int width, int height) {
+        return !transparent || (opacityTracking && !isAccelerated && opacityMap.isOpaque(x, y, width, height));
+    }
+
+    /**
+     * Checks if every pixel covered by a tile of {@link #getTileGrid()} is fully opaque, see {@link #isOpaque()}.
+     */
+    public boolean isOpaque(MCEFTileGrid.Tile tile) {
+        return isOpaque(tile.getX(), tile.getY(), tile.getWidth(), tile.getHeight());
+    }
+
+    public boolean isOpacityTrackingEnabled() {
+        return opacityTracking;
+    }
+
+    /**
+     * Enables or disables scanning the alpha channel of software paints of transparent renderers.
+     * When disabled, {@link #isOpaque()} is false for transparent renderers. Re-enabling it only reports
+     * opacity again once the frame was repainted.
+     *
+     * @param opacityTracking whether to track opaque regions
+     */
+    public void setOpacityTrackingEnabled(boolean opacityTracking) {
+        if (opacityTracking && !this.opacityTracking) {
+            opacityMap.resize(0, 0);
+        }
+        this.opacityTracking = opacityTracking;
+    }
+
+    /**
+     * Scans the alpha channel of the repainted rectangles of a software paint of the main view,
+     * before it is uploaded.
+     *
+     * @param buffer     The pixels of the whole view
+     * @param width      The width of the view
+     * @param height     The height of the view
+     * @param dirtyRects The rectangles that were repainted
+     */
+    protected void updateOpacity(ByteBuffer buffer, int width, int height, Rectangle[] dirtyRects) {
+        if (!transparent || !opacityTracking) return;
+
+        opacityMap.resize(width, height);
+        var pixels = MemoryUtil.memAddress(buffer);
+        for (Rectangle rect : dirtyRects) {
+            opacityMap.scan(pixels, rect.x, rect.y, rect.width, rect.height);
+        }
+    }
+
+    /**
+     * Marks a rectangle of the frame as translucent without scanning it, e.g. where a popup is drawn.
+     */
+    protected void markTranslucent(int x, int y, int width, int height) {
+        if (!transparent || !opacityTracking) return;
+
+        opacityMap.markTranslucent(x, y, width, height);
+    }
+
     /**
      * Checks if the renderer is using accelerated rendering. This is true when CEF calls
      * [onAcceleratedPaint] with a valid {@link CefAcceleratedPaintInfo} object, instead of
@@ -202,6 +371,31 @@ public class MCEFRenderer implements Closeable {
         return isBGRA;
     }
 
+    public UploadMode getUploadMode() {
+        return uploadMode;
+    }
+
+    /**
+     * Sets how software paints are uploaded to the texture.
+     *
+     * @param uploadMode The upload mode to use from the next paint on
+     */
+    public void setUploadMode(UploadMode uploadMode) {
+        this.uploadMode = uploadMode;
+    }
+
+    private @Nullable MCEFPixelBufferRing getPixelBufferRing() {
+        if (pixelBufferRing == null && !pixelBufferUnsupported) {
+            if (MCEFPixelBufferRing.isSupported()) {
+                pixelBufferRing = new MCEFPixelBufferRing(MCEFPixelBufferRing.DEFAULT_SIZE);
+            } else {
+                MCEF.INSTANCE.LOGGER.info("Pixel buffer uploads are not supported, falling back to direct uploads");
+                pixelBufferUnsupported = true;
+            }
+        }
+        return pixelBufferRing;
+    }
+
     /**
      * Handles accelerated paint events from CEF.
      * <p>
@@ -210,7 +404,8 @@ public class MCEFRenderer implements Closeable {
      * @param width  The width of the texture.
      * @param height The height of the texture.
      */
-    protected void onAcceleratedPaint(CefAcceleratedPaintInfo info, int width, int height) {
+    @Override
+    public void onAcceleratedPaint(CefAcceleratedPaintInfo info, int width, int height) {
         RenderSystem.assertOnRenderThread();
 
         var directSharedTexture = this.directSharedTexture;
@@ -292,14 +487,18 @@ public class MCEFRenderer implements Closeable {
         closeTexture(this.sharedTexture);
         glDeleteMemoryObjectsEXT(memoryObject);
 
-        directSharedTexture.setDirectTextureId(sharedTextureId, width, height);
+        var changed = directSharedTexture.setDirectTextureId(sharedTextureId, width, height);
         this.sharedTexture = directSharedTexture.getTexture();
         this.textureWidth = width;
         this.textureHeight = height;
 
+        changed |= !isAccelerated;
         isAccelerated = true;
         unpainted = false;
         isBGRA = true;
+        if (changed) fireTextureChange();
+        frameDamage.add(0, 0, width, height);
+        finishFrame();
 
         GlStateManager._bindTexture(0);
     }
@@ -348,10 +547,8 @@ public class MCEFRenderer implements Closeable {
         var useModifiers = eglCapabilities.EGL_EXT_image_dma_buf_import_modifiers;
         var modifier = info.modifier;
 
-        var planeAttribInts = useModifiers ? 10 : 6;
-        var attribCapacity = 6 + (planeCount * planeAttribInts) + 1;
-
-        try (MemoryStack stack = MemoryStack.stackPush()) {
+        var debug = MCEF.INSTANCE.LOGGER.isDebugEnabled();
+        if (debug) {
             MCEF.INSTANCE.LOGGER.debug(
                     "dmabuf planes: count={}, fds={}, strides={}, offsets={}, modifier=0x{}",
                     planeCount,
@@ -370,92 +567,120 @@ public class MCEFRenderer implements Closeable {
                     width,
                     height
             );
+        }
 
-            var attribs = stack.mallocInt(attribCapacity);
-            attribs.put(EGL14.EGL_WIDTH).put(width);
-            attribs.put(EGL14.EGL_HEIGHT).put(height);
-            attribs.put(EXTImageDMABufImport.EGL_LINUX_DRM_FOURCC_EXT).put(drmFormat);
-
-            for (int i = 0; i < planeCount; i++) {
-                long offset = info.plane_offsets[i];
-                if (offset > Integer.MAX_VALUE) {
-                    MCEF.INSTANCE.LOGGER.error("dmabuf plane offset too large for EGL attributes: {}", offset);
-                    return;
-                }
-
-                attribs.put(CefConstants.DMA_BUF_PLANE_FD_ATTRS[i]).put(info.plane_fds[i]);
-                attribs.put(CefConstants.DMA_BUF_PLANE_OFFSET_ATTRS[i]).put((int) offset);
-                attribs.put(CefConstants.DMA_BUF_PLANE_PITCH_ATTRS[i]).put(info.plane_strides[i]);
-
-                if (useModifiers) {
-                    int modifierLo = (int) (modifier & 0xffffffffL);
-                    int modifierHi = (int) ((modifier >>> 32) & 0xffffffffL);
-                    attribs.put(CefConstants.DMA_BUF_PLANE_MODIFIER_LO_ATTRS[i]).put(modifierLo);
-                    attribs.put(CefConstants.DMA_BUF_PLANE_MODIFIER_HI_ATTRS[i]).put(modifierHi);
-                }
-            }
-
-            attribs.put(EGL14.EGL_NONE);
-            attribs.flip();
+        // Reused for every import, a stack buffer would still allocate its wrapper per paint
+        if (dmabufAttribs == null) {
+            dmabufAttribs = MemoryUtil.memAllocInt(MAX_DMABUF_ATTRIBS);
+        }
+        var attribs = dmabufAttribs;
+        if (!putDmabufAttribs(attribs, width, height, drmFormat, planeCount,
+                info.plane_fds, info.plane_strides, info.plane_offsets, modifier, useModifiers)) {
+            MCEF.INSTANCE.LOGGER.error("dmabuf plane offset too large for EGL attributes: {}",
+                    Arrays.toString(info.plane_offsets));
+            return;
+        }
 
-            var attribSnapshot = new int[attribs.remaining()];
-            attribs.get(attribSnapshot);
-            attribs.rewind();
+        if (debug) {
             MCEF.INSTANCE.LOGGER.debug(
                     "eglCreateImageKHR dmabuf attribs: {}",
-                    Arrays.toString(attribSnapshot)
+                    attribsToString(attribs)
             );
+        }
 
-            var eglImage = EglUtils.eglCreateImageKHR(
-                    display,
-                    EGL14.EGL_NO_CONTEXT,
-                    EXTImageDMABufImport.EGL_LINUX_DMA_BUF_EXT,
-                    0L,
-                    attribs
+        var eglImage = EglUtils.eglCreateImageKHR(
+                display,
+                EGL14.EGL_NO_CONTEXT,
+                EXTImageDMABufImport.EGL_LINUX_DMA_BUF_EXT,
+                0L,
+                attribs
+        );
+
+        if (eglImage == 0) {
+            var eglError = EGL14.eglGetError();
+            MCEF.INSTANCE.LOGGER.error(
+                    "eglCreateImageKHR failed for dmabuf import. eglGetError=0x{}",
+                    Integer.toHexString(eglError)
+            );
+            MCEF.INSTANCE.LOGGER.error(
+                    "dmabuf attribs at failure: {}",
+                    attribsToString(attribs)
             );
+            return;
+        }
 
-            if (eglImage == 0) {
-                var eglError = EGL14.eglGetError();
-                MCEF.INSTANCE.LOGGER.error(
-                        "eglCreateImageKHR failed for dmabuf import. eglGetError=0x{}",
-                        Integer.toHexString(eglError)
-                );
-                MCEF.INSTANCE.LOGGER.error(
-                        "dmabuf attribs at failure: {}",
-                        Arrays.toString(attribSnapshot)
-                );
-                return;
-            }
+        if (transparent) {
+            GlStateManager._enableBlend();
+        }
 
-            if (transparent) {
-                GlStateManager._enableBlend();
-            }
+        var sharedTextureId = glGenTextures();
+        GlStateManager._bindTexture(sharedTextureId);
+        EXTEGLImageStorage.glEGLImageTargetTexStorageEXT(GL_TEXTURE_2D, eglImage, (IntBuffer) null);
+        KHRImageBase.eglDestroyImageKHR(display, eglImage);
 
-            var sharedTextureId = glGenTextures();
-            GlStateManager._bindTexture(sharedTextureId);
-            EXTEGLImageStorage.glEGLImageTargetTexStorageEXT(GL_TEXTURE_2D, eglImage, (IntBuffer) null);
-            KHRImageBase.eglDestroyImageKHR(display, eglImage);
+        var error = glGetError();
+        if (error != GL_NO_ERROR) {
+            MCEF.INSTANCE.LOGGER.error("glEGLImageTargetTexture2DOES failed with error: {}", error);
+            glDeleteTextures(sharedTextureId);
+            return;
+        }
 
-            var error = glGetError();
-            if (error != GL_NO_ERROR) {
-                MCEF.INSTANCE.LOGGER.error("glEGLImageTargetTexture2DOES failed with error: {}", error);
-                glDeleteTextures(sharedTextureId);
-                return;
-            }
+        closeTexture(this.sharedTexture);
 
-            closeTexture(this.sharedTexture);
+        var changed = directSharedTexture.setDirectTextureId(sharedTextureId, width, height);
+        this.sharedTexture = directSharedTexture.getTexture();
+        this.textureWidth = width;
+        this.textureHeight = height;
 
-            directSharedTexture.setDirectTextureId(sharedTextureId, width, height);
-            this.sharedTexture = directSharedTexture.getTexture();
-            this.textureWidth = width;
-            this.textureHeight = height;
+        changed |= !isAccelerated;
+        isAccelerated = true;
+        unpainted = false;
+        isBGRA = info.format != CefConstants.CEF_COLOR_TYPE_BGRA_8888;
+        if (changed) fireTextureChange();
+        frameDamage.add(0, 0, width, height);
+        finishFrame();
 
-            isAccelerated = true;
-            unpainted = false;
-            isBGRA = info.format != CefConstants.CEF_COLOR_TYPE_BGRA_8888;
+        GlStateManager._bindTexture(0);
+    }
 
-            GlStateManager._bindTexture(0);
+    /**
+     * Writes the EGL attributes importing dmabuf planes, terminated by {@code EGL_NONE} and flipped for reading.
+     *
+     * @param attribs Has room for {@link #MAX_DMABUF_ATTRIBS} attributes
+     * @return false if a plane offset does not fit into an attribute
+     */
+    static boolean putDmabufAttribs(IntBuffer attribs, int width, int height, int drmFormat, int planeCount,
+                                    int[] fds, int[] strides, long[] offsets, long modifier, boolean useModifiers) {
+        attribs.clear();
+        attribs.put(EGL14.EGL_WIDTH).put(width);
+        attribs.put(EGL14.EGL_HEIGHT).put(height);
+        attribs.put(EXTImageDMABufImport.EGL_LINUX_DRM_FOURCC_EXT).put(drmFormat);
+
+        for (int i = 0; i < planeCount; i++) {
+            long offset = offsets[i];
+            if (offset > Integer.MAX_VALUE) return false;
+
+            attribs.put(CefConstants.DMA_BUF_PLANE_FD_ATTRS[i]).put(fds[i]);
+            attribs.put(CefConstants.DMA_BUF_PLANE_OFFSET_ATTRS[i]).put((int) offset);
+            attribs.put(CefConstants.DMA_BUF_PLANE_PITCH_ATTRS[i]).put(strides[i]);
+
+            if (useModifiers) {
+                int modifierLo = (int) (modifier & 0xffffffffL);
+                int modifierHi = (int) ((modifier >>> 32) & 0xffffffffL);
+                attribs.put(CefConstants.DMA_BUF_PLANE_MODIFIER_LO_ATTRS[i]).put(modifierLo);
+                attribs.put(CefConstants.DMA_BUF_PLANE_MODIFIER_HI_ATTRS[i]).put(modifierHi);
+            }
         }
+
+        attribs.put(EGL14.EGL_NONE);
+        attribs.flip();
+        return true;
+    }
+
+    private static String attribsToString(IntBuffer attribs) {
+        var snapshot = new int[attribs.remaining()];
+        attribs.get(attribs.position(), snapshot);
+        return Arrays.toString(snapshot);
     }
 
     /**
@@ -466,56 +691,270 @@ public class MCEFRenderer implements Closeable {
      * @param width  The width of the texture.
      * @param height The height of the texture.
      */
-    protected void onPaint(ByteBuffer buffer, int width, int height) {
+    @Override
+    public void onPaint(ByteBuffer buffer, int width, int height) {
         RenderSystem.assertOnRenderThread();
 
-        // Create or recreate texture if size changed
-        if (texture == null || textureWidth != width || textureHeight != height) {
-            if (texture != null) {
-                texture.close();
-            }
-
-            // Create new GpuTexture using the device
-            String label = "MCEF Browser Texture " + width + "x" + height;
-            texture = RenderSystem.getDevice().createTexture(
-                    label,
-                    GpuTexture.USAGE_TEXTURE_BINDING | GpuTexture.USAGE_RENDER_ATTACHMENT | GpuTexture.USAGE_COPY_SRC | GpuTexture.USAGE_COPY_DST,
-                    TextureFormat.RGBA8,
-                    width,
-                    height,
-                    1, // depthOrLayers
-                    1  // mipLevels
-            );
-
-            textureWidth = width;
-            textureHeight = height;
-
-            // Update the direct texture wrapper to point to our new texture
-            if (directTexture != null && texture instanceof GlTexture glTexture) {
-                directTexture.setDirectTextureId(glTexture.glId(), width, height);
-            }
-        }
-
-        if (transparent) {
-            GlStateManager._enableBlend();
-        }
+        resize(width, height);
 
-        if (texture instanceof GlTexture glTexture) {
+        if (tileGrid != null) {
+            tileGrid.upload(MemoryUtil.memAddress(buffer), width, 0, 0, 0, 0, width, height);
+            frameDamage.add(0, 0, width, height);
+            isBGRA = false;
+            unpainted = false;
+        } else if (texture instanceof GlTexture glTexture) {
             // Bind the texture directly using its GL ID
             GlStateManager._bindTexture(glTexture.glId());
             GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, width);
             GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, 0);
             GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, 0);
 
-            // Upload the full texture
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0,
+            // Upload the full frame into the existing storage
+            glTexSubImage2D(GL_TEXTURE_2D, 0, getUploadX(), getUploadY(), width, height,
                     GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+            frameDamage.add(0, 0, width, height);
 
             isBGRA = false;
             unpainted = false;
         }
     }
 
+    /**
+     * Makes sure the software texture can hold a frame of the given size, without uploading anything.
+     * The contents of the texture are undefined if it had to be reallocated.
+     *
+     * @param width  The width of the frame.
+     * @param height The height of the frame.
+     */
+    @Override
+    public void resize(int width, int height) {
+        RenderSystem.assertOnRenderThread();
+
+        var maxTextureSize = RenderSystem.getDevice().getMaxTextureSize();
+        if (tileSize > 0 || width > maxTextureSize || height > maxTextureSize) {
+            var size = Math.min(tileSize > 0 ? tileSize : DEFAULT_TILE_SIZE, maxTextureSize);
+            prepareTiles(width, height, size);
+        } else {
+            if (tileGrid != null) {
+                tileGrid.close();
+                tileGrid = null;
+            }
+
+            if (atlas != null && atlas.fits(width, height)) {
+                prepareAtlasRegion(atlas, width, height);
+            } else if (texture == null || atlasRegion != null || !fitsStorage(width, height)) {
+                // Storage is only reallocated when the frame no longer fits it, full repaints reuse it
+                allocateTexture(width, height);
+            }
+        }
+        textureWidth = width;
+        textureHeight = height;
+
+        if (!isOpaque()) {
+            GlStateManager._enableBlend();
+        }
+    }
+
+    private void prepareTiles(int width, int height, int size) {
+        var changed = false;
+        if (texture != null) {
+            releaseTexture();
+            // The single texture is gone, consumers have to draw the tiles
+            if (directTexture != null) directTexture.setDirectTextureId(0, 0, 0);
+            changed = true;
+        }
+
+        if (tileGrid == null || tileGrid.getTileSize() != size) {
+            if (tileGrid != null) tileGrid.close();
+            tileGrid = new MCEFTileGrid(size);
+        }
+        changed |= tileGrid.resize(width, height);
+
+        if (changed) fireTextureChange();
+    }
+
+    /**
+     * @return The tiles the frame is split into, or null if it is a single texture, see {@link #setTileSize(int)}
+     */
+    public @Nullable MCEFTileGrid getTileGrid() {
+        return tileGrid;
+    }
+
+    /**
+     * Checks if the software frame is split into tiles. {@link #getTexture()} and {@link #getTextureSetup()}
+     * return nothing useful then; consumers have to draw every tile of {@link #getTileGrid()} instead.
+     */
+    public boolean isTiled() {
+        return tileGrid != null;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Splits software frames into tiles of the given size, so that no single texture or upload is larger than
+     * a tile. Frames larger than the maximum texture size are always tiled, with {@value #DEFAULT_TILE_SIZE}
+     * pixel tiles unless set otherwise. Takes effect with the next full frame, e.g. after a resize or invalidate.
+     *
+     * @param tileSize The tile size in pixels, or 0 to only tile frames that do not fit a single texture
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(0, tileSize);
+    }
+
+    private void prepareAtlasRegion(MCEFTextureAtlas atlas, int width, int height) {
+        var region = atlasRegion;
+        if (region != null && region.getAtlas() == atlas && region.getWidth() == width && region.getHeight() == height) {
+            return;
+        }
+
+        releaseTexture();
+        region = atlas.allocate(width, height, this::onAtlasRegionMoved);
+        if (region == null) {
+            allocateTexture(width, height);
+            return;
+        }
+        atlasRegion = region;
+        bindAtlasPage(region);
+        // Regions of the same size can share a texture setup, the coordinates changed regardless
+        fireTextureChange();
+    }
+
+    private void bindAtlasPage(MCEFTextureAtlas.Region region) {
+        var pageSize = region.getAtlas().getPageSize();
+        var textureId = region.getPage().getTextureId();
+        texture = new MCEFDirectTexture.DirectGlTexture(textureId, pageSize, pageSize);
+        if (directTexture != null) {
+            directTexture.setDirectTextureId(textureId, pageSize, pageSize);
+        }
+    }
+
+    private void onAtlasRegionMoved(MCEFTextureAtlas.Region region) {
+        if (region != atlasRegion) return;
+        bindAtlasPage(region);
+        fireTextureChange();
+    }
+
+    /**
+     * @return The atlas software frames are packed into, or null
+     */
+    public @Nullable MCEFTextureAtlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Packs the software texture into a shared atlas page instead of a texture of its own, if it fits.
+     * {@link #getTexture()} and {@link #getTextureSetup()} then refer to the whole page; consumers have to draw
+     * the part from {@link #getMinU()}/{@link #getMinV()} to {@link #getMaxU()}/{@link #getMaxV()}, or use
+     * {@link #getAtlasRegion()} to batch every browser on a page. Takes effect with the next full frame.
+     *
+     * @param atlas The atlas to use, or null for a texture of its own
+     */
+    public void setAtlas(@Nullable MCEFTextureAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    /**
+     * @return The region of the atlas the frame is uploaded into, or null if it is not in an atlas
+     */
+    public MCEFTextureAtlas.@Nullable Region getAtlasRegion() {
+        return atlasRegion;
+    }
+
+    private int getUploadX() {
+        var region = atlasRegion;
+        return region == null ? 0 : region.getX();
+    }
+
+    private int getUploadY() {
+        var region = atlasRegion;
+        return region == null ? 0 : region.getY();
+    }
+
+    private static int toCapacityBucket(int size) {
+        return (size + CAPACITY_BUCKET - 1) / CAPACITY_BUCKET * CAPACITY_BUCKET;
+    }
+
+    private boolean fitsStorage(int width, int height) {
+        if (capacityBuckets) {
+            return toCapacityBucket(width) == textureCapacityWidth && toCapacityBucket(height) == textureCapacityHeight;
+        }
+        return width == textureCapacityWidth && height == textureCapacityHeight;
+    }
+
+    /**
+     * Borrows the software texture from the {@link MCEFTexturePool}. With capacity buckets enabled the storage is
+     * rounded up, so that small size changes keep using it.
+     */
+    private void allocateTexture(int width, int height) {
+        releaseTexture();
+
+        var capacityWidth = capacityBuckets ? toCapacityBucket(width) : width;
+        var capacityHeight = capacityBuckets ? toCapacityBucket(height) : height;
+
+        var textureId = MCEF.INSTANCE.getTexturePool().acquire(capacityWidth, capacityHeight);
+
+        texture = new MCEFDirectTexture.DirectGlTexture(textureId, capacityWidth, capacityHeight);
+        textureCapacityWidth = capacityWidth;
+        textureCapacityHeight = capacityHeight;
+
+        // Update the direct texture wrapper to point to our new texture
+        if (directTexture != null && directTexture.setDirectTextureId(textureId, capacityWidth, capacityHeight)) {
+            fireTextureChange();
+        }
+    }
+
+    /**
+     * Checks if the software texture storage is rounded up to capacity buckets,
+     * see {@link #setTextureCapacityBuckets(boolean)}.
+     */
+    public boolean isTextureCapacityBuckets() {
+        return capacityBuckets;
+    }
+
+    /**
+     * Rounds the software texture storage up to multiples of {@value #CAPACITY_BUCKET} pixels, so that resizes
+     * within a bucket never reallocate it. The frame then only covers the top-left part of the texture;
+     * consumers have to sample it with {@link #getMaxU()} and {@link #getMaxV()}.
+     * Takes effect on the next reallocation.
+     *
+     * @param capacityBuckets whether to round the texture storage up
+     */
+    public void setTextureCapacityBuckets(boolean capacityBuckets) {
+        this.capacityBuckets = capacityBuckets;
+    }
+
+    /**
+     * @return The horizontal texture coordinate of the left edge of the frame
+     */
+    public float getMinU() {
+        return !isAccelerated && atlasRegion != null ? atlasRegion.getMinU() : 0.0f;
+    }
+
+    /**
+     * @return The vertical texture coordinate of the top edge of the frame
+     */
+    public float getMinV() {
+        return !isAccelerated && atlasRegion != null ? atlasRegion.getMinV() : 0.0f;
+    }
+
+    /**
+     * @return The horizontal texture coordinate of the right edge of the frame
+     */
+    public float getMaxU() {
+        if (!isAccelerated && atlasRegion != null) return atlasRegion.getMaxU();
+        return isAccelerated || textureCapacityWidth == 0 ? 1.0f : (float) textureWidth / textureCapacityWidth;
+    }
+
+    /**
+     * @return The vertical texture coordinate of the bottom edge of the frame
+     */
+    public float getMaxV() {
+        if (!isAccelerated && atlasRegion != null) return atlasRegion.getMaxV();
+        return isAccelerated || textureCapacityHeight == 0 ? 1.0f : (float) textureHeight / textureCapacityHeight;
+    }
+
     /**
      * Paints a sub-region of the texture with the provided ByteBuffer data.
      * This method is called when CEF provides a ByteBuffer for painting a specific area.
@@ -529,14 +968,287 @@ public class MCEFRenderer implements Closeable {
     protected void onPaint(ByteBuffer buffer, int x, int y, int width, int height) {
         RenderSystem.assertOnRenderThread();
 
-        if (texture instanceof GlTexture glTexture) {
+        if (tileGrid != null) {
+            tileGrid.upload(MemoryUtil.memAddress(buffer), width, 0, 0, x, y, width, height);
+            frameDamage.add(x, y, width, height);
+        } else if (texture instanceof GlTexture glTexture) {
             // Bind and update sub-region
             GlStateManager._bindTexture(glTexture.glId());
-            glTexSubImage2D(GL_TEXTURE_2D, 0, x, y, width, height, GL_BGRA,
+            glTexSubImage2D(GL_TEXTURE_2D, 0, getUploadX() + x, getUploadY() + y, width, height, GL_BGRA,
                     GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+            frameDamage.add(x, y, width, height);
+        }
+    }
+
+    /**
+     * Uploads the regions planned by a {@link MCEFPaintPlanner} from a buffer.
+     * Region coordinates are relative to the buffer and are offset by (offsetX, offsetY) in the texture.
+     *
+     * @param buffer      The ByteBuffer containing the pixel data to paint.
+     * @param bufferWidth The row length of the buffer in pixels.
+     * @param plan        The planned regions to upload.
+     * @param offsetX     The x-coordinate of the buffer in the texture.
+     * @param offsetY     The y-coordinate of the buffer in the texture.
+     */
+    @Override
+    public void onPaint(ByteBuffer buffer, int bufferWidth, MCEFPaintPlanner plan, int offsetX, int offsetY) {
+        RenderSystem.assertOnRenderThread();
+
+        if (plan.size() > 0 && tileGrid != null) {
+            uploadTiles(MemoryUtil.memAddress(buffer), bufferWidth, plan, offsetX, offsetY);
+            return;
+        }
+
+        if (plan.size() == 0 || !(texture instanceof GlTexture glTexture)) {
+            return;
+        }
+
+        GlStateManager._bindTexture(glTexture.glId());
+        isBGRA = false;
+        unpainted = false;
+        addFrameDamage(plan, offsetX, offsetY);
+
+        if (uploadMode == UploadMode.PIXEL_BUFFER) {
+            var ring = getPixelBufferRing();
+            // If every pixel buffer is still in flight, upload directly rather than stalling
+            if (ring != null && ring.upload(buffer, bufferWidth, plan, getUploadX() + offsetX, getUploadY() + offsetY)) {
+                return;
+            }
+        }
+
+        var uploadX = getUploadX() + offsetX;
+        var uploadY = getUploadY() + offsetY;
+        GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, bufferWidth);
+        for (int i = 0; i < plan.size(); i++) {
+            int x = plan.getX(i);
+            int y = plan.getY(i);
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, x);
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, y);
+            glTexSubImage2D(GL_TEXTURE_2D, 0, uploadX + x, uploadY + y, plan.getWidth(i), plan.getHeight(i),
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, buffer);
+        }
+    }
+
+    /**
+     * Uploads the planned regions from a pixel buffer object that holds a whole buffer of pixels,
+     * e.g. a persistently mapped staging buffer. The caller is responsible for fencing the buffer.
+     *
+     * @param pixelBuffer The pixel unpack buffer to read from.
+     * @param bufferWidth The row length of the buffer in pixels.
+     * @param plan        The planned regions to upload.
+     * @param offsetX     The x-coordinate of the buffer in the texture.
+     * @param offsetY     The y-coordinate of the buffer in the texture.
+     */
+    protected void onPaint(int pixelBuffer, int bufferWidth, MCEFPaintPlanner plan, int offsetX, int offsetY) {
+        RenderSystem.assertOnRenderThread();
+
+        if (plan.size() > 0 && tileGrid != null) {
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+            uploadTiles(0L, bufferWidth, plan, offsetX, offsetY);
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+            return;
+        }
+
+        if (plan.size() == 0 || !(texture instanceof GlTexture glTexture)) {
+            return;
+        }
+
+        GlStateManager._bindTexture(glTexture.glId());
+        isBGRA = false;
+        unpainted = false;
+        addFrameDamage(plan, offsetX, offsetY);
+
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+        var uploadX = getUploadX() + offsetX;
+        var uploadY = getUploadY() + offsetY;
+        GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, bufferWidth);
+        for (int i = 0; i < plan.size(); i++) {
+            int x = plan.getX(i);
+            int y = plan.getY(i);
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, x);
+            GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, y);
+            glTexSubImage2D(GL_TEXTURE_2D, 0, uploadX + x, uploadY + y, plan.getWidth(i), plan.getHeight(i),
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+        }
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    /**
+     * Copies the planned regions from a texture that holds a whole frame, e.g. one staged by the
+     * {@link MCEFUploadWorker}. The caller is responsible for synchronizing with whoever wrote the texture.
+     *
+     * @param sourceId The texture holding the frame at its origin.
+     * @param plan     The planned regions to copy.
+     */
+    protected void copyFrame(int sourceId, MCEFPaintPlanner plan) {
+        RenderSystem.assertOnRenderThread();
+
+        if (plan.size() == 0) return;
+
+        var tileGrid = this.tileGrid;
+        if (tileGrid == null && !(texture instanceof GlTexture)) return;
+
+        isBGRA = false;
+        unpainted = false;
+        addFrameDamage(plan, 0, 0);
+        var uploadX = getUploadX();
+        var uploadY = getUploadY();
+        for (int i = 0; i < plan.size(); i++) {
+            int x = plan.getX(i);
+            int y = plan.getY(i);
+            if (tileGrid != null) {
+                tileGrid.copy(sourceId, x, y, plan.getWidth(i), plan.getHeight(i));
+            } else if (texture instanceof GlTexture glTexture) {
+                MCEFTextureCopy.copy(sourceId, x, y, glTexture.glId(), uploadX + x, uploadY + y,
+                        plan.getWidth(i), plan.getHeight(i));
+            }
+        }
+    }
+
+    private void uploadTiles(long pixels, int bufferWidth, MCEFPaintPlanner plan, int offsetX, int offsetY) {
+        var tileGrid = this.tileGrid;
+        if (tileGrid == null) return;
+
+        isBGRA = false;
+        unpainted = false;
+        addFrameDamage(plan, offsetX, offsetY);
+        for (int i = 0; i < plan.size(); i++) {
+            int x = plan.getX(i);
+            int y = plan.getY(i);
+            tileGrid.upload(pixels, bufferWidth, x, y, offsetX + x, offsetY + y, plan.getWidth(i), plan.getHeight(i));
         }
     }
 
+    /**
+     * Applies the moves of a shift detected by a {@link MCEFScrollDetector} to the software texture: the moved
+     * rows or columns are copied aside and back to their new position on the GPU. The rest of the frame has to be
+     * uploaded afterwards.
+     *
+     * @return false if the content cannot be moved, e.g. because the frame is tiled. The whole frame has to be
+     * uploaded then.
+     */
+    protected boolean moveContent(MCEFScrollDetector scroll) {
+        RenderSystem.assertOnRenderThread();
+
+        if (scroll.getMoveCount() == 0 || tileGrid != null || isAccelerated
+                || !(texture instanceof GlTexture glTexture)) {
+            return false;
+        }
+
+        var scratch = getScratchTexture(textureWidth, textureHeight);
+        var vertical = scroll.isVertical();
+        var uploadX = getUploadX();
+        var uploadY = getUploadY();
+
+        // Moves may overlap each other, so every source is copied aside before anything is written
+        int first = Integer.MAX_VALUE, last = 0;
+        for (int i = 0; i < scroll.getMoveCount(); i++) {
+            first = Math.min(first, scroll.getMoveSource(i));
+            last = Math.max(last, scroll.getMoveSource(i) + scroll.getMoveLength(i));
+        }
+        if (vertical) {
+            MCEFTextureCopy.copy(glTexture.glId(), uploadX, uploadY + first, scratch, 0, first, textureWidth, last - first);
+        } else {
+            MCEFTextureCopy.copy(glTexture.glId(), uploadX + first, uploadY, scratch, first, 0, last - first, textureHeight);
+        }
+
+        for (int i = 0; i < scroll.getMoveCount(); i++) {
+            var source = scroll.getMoveSource(i);
+            var target = scroll.getMoveTarget(i);
+            var length = scroll.getMoveLength(i);
+            if (vertical) {
+                MCEFTextureCopy.copy(scratch, 0, source, glTexture.glId(), uploadX, uploadY + target, textureWidth, length);
+                frameDamage.add(0, target, textureWidth, length);
+            } else {
+                MCEFTextureCopy.copy(scratch, source, 0, glTexture.glId(), uploadX + target, uploadY, length, textureHeight);
+                frameDamage.add(target, 0, length, textureHeight);
+            }
+        }
+        return true;
+    }
+
+    private int getScratchTexture(int width, int height) {
+        if (scratchTextureId == 0 || scratchWidth != width || scratchHeight != height) {
+            releaseScratchTexture();
+            scratchTextureId = MCEF.INSTANCE.getTexturePool().acquire(width, height);
+            scratchWidth = width;
+            scratchHeight = height;
+        }
+        return scratchTextureId;
+    }
+
+    private void releaseScratchTexture() {
+        if (scratchTextureId != 0) {
+            MCEF.INSTANCE.getTexturePool().release(scratchTextureId, scratchWidth, scratchHeight);
+            scratchTextureId = 0;
+            scratchWidth = 0;
+            scratchHeight = 0;
+        }
+    }
+
+    private void addFrameDamage(MCEFPaintPlanner plan, int offsetX, int offsetY) {
+        for (int i = 0; i < plan.size(); i++) {
+            frameDamage.add(offsetX + plan.getX(i), offsetY + plan.getY(i), plan.getWidth(i), plan.getHeight(i));
+        }
+    }
+
+    /**
+     * Completes a frame after all of its regions were uploaded: bumps the frame version, adds the uploaded
+     * regions to the dirty region and notifies the frame listener. Does nothing if nothing was uploaded.
+     */
+    @Override
+    public void finishFrame() {
+        RenderSystem.assertOnRenderThread();
+
+        if (frameDamage.isEmpty()) return;
+
+        frameVersion++;
+        dirtyRegion.add(frameDamage);
+        var listener = this.frameListener;
+        if (listener != null) {
+            listener.onFrameUpdated(frameVersion, frameDamage);
+        }
+        frameDamage.clear();
+    }
+
+    /**
+     * Returns a number that increases every time a frame is uploaded to the texture. Consumers that cache what
+     * they drew from the texture can compare it to the version they drew to skip redundant work.
+     *
+     * @return the current frame version, 0 if nothing was uploaded yet
+     */
+    public long getFrameVersion() {
+        return frameVersion;
+    }
+
+    /**
+     * Returns the texture regions updated since {@link #clearDirtyRegion()} was last called. Only valid on
+     * the render thread, until the next frame is uploaded.
+     *
+     * @return the accumulated dirty region
+     */
+    public MCEFDamageRegion getDirtyRegion() {
+        return dirtyRegion;
+    }
+
+    /**
+     * Clears the accumulated dirty region, e.g. after a consumer caught up with the texture.
+     */
+    public void clearDirtyRegion() {
+        dirtyRegion.clear();
+    }
+
+    public @Nullable MCEFFrameListener getFrameListener() {
+        return frameListener;
+    }
+
+    /**
+     * Sets a listener that is called on the render thread after every frame uploaded to the texture.
+     */
+    public void setFrameListener(@Nullable MCEFFrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
     /**
      * Clears the texture by binding it and filling it with transparent pixels.
      */
@@ -549,9 +1261,17 @@ public class MCEFRenderer implements Closeable {
             this.directTexture = null;
         }
 
-        if (this.texture != null) {
-            closeTexture(this.texture);
-            this.texture = null;
+        releaseTexture();
+        releaseScratchTexture();
+
+        if (this.dmabufAttribs != null) {
+            MemoryUtil.memFree(this.dmabufAttribs);
+            this.dmabufAttribs = null;
+        }
+
+        if (this.tileGrid != null) {
+            this.tileGrid.close();
+            this.tileGrid = null;
         }
 
         if (this.directSharedTexture != null) {
@@ -564,15 +1284,40 @@ public class MCEFRenderer implements Closeable {
             this.sharedTexture = null;
         }
 
+        if (this.pixelBufferRing != null) {
+            this.pixelBufferRing.close();
+            this.pixelBufferRing = null;
+        }
+
         // Unregister from TextureManager
         if (textureRegistered) {
-            mc.getTextureManager().release(identifier);
+            mc().getTextureManager().release(identifier);
             textureRegistered = false;
         }
 
         isAccelerated = false;
     }
 
+    /**
+     * Hands the software texture back to the {@link MCEFTexturePool}, or its region back to the atlas.
+     */
+    private void releaseTexture() {
+        if (atlasRegion != null) {
+            // The page belongs to the atlas
+            if (texture != null) texture.close();
+            atlasRegion.getAtlas().free(atlasRegion);
+            atlasRegion = null;
+        } else if (texture instanceof MCEFDirectTexture.DirectGlTexture t) {
+            t.close();
+            MCEF.INSTANCE.getTexturePool().release(t.glId(), textureCapacityWidth, textureCapacityHeight);
+        } else {
+            closeTexture(texture);
+        }
+        texture = null;
+        textureCapacityWidth = 0;
+        textureCapacityHeight = 0;
+    }
+
     private static void closeTexture(@Nullable GpuTexture texture) {
         switch (texture) {
             case null -> {
@@ -0,0 +1,420 @@
+package su.asuna.mcef.cef;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.system.MemoryUtil;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Detects software paints that only shift the previous frame, as when a page scrolls.
+ * <p>
+ * CEF repaints the whole view when it scrolls. The detector keeps a hash of every row of the uploaded frame
+ * and compares full-frame paints against them. When most rows of the new frame appear in the old one at a
+ * common offset, the renderer moves the existing texture content on the GPU and only the rows that are new
+ * or changed are uploaded. Partial paints rehash the rows they touch.
+ * <p>
+ * Columns are only hashed when no vertical shift is found. A hash over {@value #COLUMN_SAMPLE_ROWS} evenly spaced
+ * rows proposes a horizontal shift; only then are the columns hashed over all rows, and only those full hashes
+ * decide which columns are moved or unchanged, so a change between the sampled rows is still uploaded. Column
+ * hashes are kept across consecutive full-frame paints that are not vertical shifts, so horizontal shifts are
+ * detected from the second such paint on.
+ * <p>
+ * Hashing reads the whole frame. When {@value #WINDOW_PAINTS} full-frame paints in a row are not shifts,
+ * the detector suspends itself for {@value #SUSPEND_PAINTS} paints, e.g. while a video plays.
+ * <p>
+ * Disabled by default. Must only be used by the thread that delivers paints.
+ */
+@NullMarked
+public final class MCEFScrollDetector {
+
+    public static final int WINDOW_PAINTS = 30;
+    public static final int SUSPEND_PAINTS = 300;
+    // Rows of the new frame whose position in the old frame proposes a shift, as fractions of the frame
+    private static final int[] ANCHORS = {4, 2, 6, 1, 3, 5, 7};
+    private static final int MAX_CANDIDATES = 8;
+    private static final long PRIME = 0x100000001B3L;
+    // Rows read to hash the columns, a horizontal shift moves every row so a sample tells it apart
+    private static final int COLUMN_SAMPLE_ROWS = 64;
+
+    private final MCEFDamageRegion damage = new MCEFDamageRegion();
+    private long[] rowHashes = new long[0];
+    private long[] columnHashes = new long[0];
+    private long[] nextRowHashes = new long[0];
+    private long[] nextColumnHashes = new long[0];
+    private long[] sampledColumnHashes = new long[0];
+    private long[] nextSampledColumnHashes = new long[0];
+    private int width = 0;
+    private int height = 0;
+    private boolean valid = false;
+    private boolean columnsValid = false;
+    private boolean sampledColumnsValid = false;
+
+    // Moves of the last detected shift, as source, target and length triples along its axis
+    private int[] moves = new int[48];
+    private int moveCount = 0;
+    private boolean vertical = true;
+
+    private volatile boolean enabled = false;
+    private int missedPaints = 0;
+    private int suspendedPaints = 0;
+
+    // Only written by the thread that delivers paints
+    private volatile long scrolls;
+    private volatile long bytesMoved;
+    private volatile long hashNanos;
+
+    /**
+     * Hashes a paint and checks if it shifts the previous frame.
+     *
+     * @param buffer     The pixels of the whole view
+     * @param width      The width of the view
+     * @param height     The height of the view
+     * @param dirtyRects The rectangles CEF reported as dirty
+     * @return The rows or columns that still have to be uploaded after the moves, or null if the paint is not
+     * a shift and has to be uploaded as reported
+     */
+    @Nullable MCEFDamageRegion detect(ByteBuffer buffer, int width, int height, Rectangle[] dirtyRects) {
+        moveCount = 0;
+        if (!enabled) {
+            valid = false;
+            return null;
+        }
+        if (suspendedPaints > 0) {
+            suspendedPaints--;
+            return null;
+        }
+
+        var start = System.nanoTime();
+        var pixels = MemoryUtil.memAddress(buffer);
+        try {
+            if (!valid || width != this.width || height != this.height) {
+                resize(width, height);
+                hashRows(pixels, rowHashes);
+                hashColumns(pixels, columnHashes, 1);
+                hashColumns(pixels, sampledColumnHashes, getSampleStep());
+                valid = true;
+                columnsValid = true;
+                sampledColumnsValid = true;
+                return null;
+            }
+
+            if (!coversFrame(dirtyRects)) {
+                for (Rectangle rect : dirtyRects) {
+                    int y0 = Math.max(0, rect.y);
+                    int y1 = Math.min(height, rect.y + rect.height);
+                    for (int y = y0; y < y1; y++) {
+                        rowHashes[y] = hashRow(pixels, y);
+                    }
+                }
+                columnsValid = false;
+                sampledColumnsValid = false;
+                return null;
+            }
+
+            hashRows(pixels, nextRowHashes);
+            var result = findShift(rowHashes, nextRowHashes, true);
+            var columnsSampled = result == null;
+            var columnsHashed = false;
+            if (columnsSampled) {
+                hashColumns(pixels, nextSampledColumnHashes, getSampleStep());
+                // The sample only proposes a shift. Without a previous one, the full hashes are kept for the next paint
+                columnsHashed = !sampledColumnsValid
+                        || proposeShift(sampledColumnHashes, nextSampledColumnHashes) != 0;
+                if (columnsHashed) {
+                    hashColumns(pixels, nextColumnHashes, 1);
+                    if (columnsValid) {
+                        result = findShift(columnHashes, nextColumnHashes, false);
+                    }
+                }
+            }
+
+            var swap = rowHashes;
+            rowHashes = nextRowHashes;
+            nextRowHashes = swap;
+            if (columnsSampled) {
+                swap = sampledColumnHashes;
+                sampledColumnHashes = nextSampledColumnHashes;
+                nextSampledColumnHashes = swap;
+            }
+            if (columnsHashed) {
+                swap = columnHashes;
+                columnHashes = nextColumnHashes;
+                nextColumnHashes = swap;
+            }
+            sampledColumnsValid = columnsSampled;
+            columnsValid = columnsHashed;
+
+            if (result != null) {
+                scrolls++;
+                missedPaints = 0;
+            } else if (++missedPaints >= WINDOW_PAINTS) {
+                missedPaints = 0;
+                suspendedPaints = SUSPEND_PAINTS;
+                // Paints are not hashed while suspended
+                valid = false;
+            }
+            return result;
+        } finally {
+            hashNanos += System.nanoTime() - start;
+        }
+    }
+
+    private boolean coversFrame(Rectangle[] dirtyRects) {
+        for (Rectangle rect : dirtyRects) {
+            if (rect.x <= 0 && rect.y <= 0 && rect.x + rect.width >= width && rect.y + rect.height >= height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        rowHashes = new long[height];
+        nextRowHashes = new long[height];
+        columnHashes = new long[width];
+        nextColumnHashes = new long[width];
+        sampledColumnHashes = new long[width];
+        nextSampledColumnHashes = new long[width];
+    }
+
+    private long hashRow(long pixels, int y) {
+        var row = pixels + (long) y * width * PixelUtils.BYTES_PER_PIXEL;
+        var end = row + ((long) (width >>> 1) << 3);
+        long hash = 0;
+        for (long pixel = row; pixel < end; pixel += 8) {
+            hash = (hash ^ MemoryUtil.memGetLong(pixel)) * PRIME;
+        }
+        if ((width & 1) != 0) {
+            hash = (hash ^ MemoryUtil.memGetInt(end)) * PRIME;
+        }
+        return mix(hash);
+    }
+
+    private void hashRows(long pixels, long[] rows) {
+        for (int y = 0; y < height; y++) {
+            rows[y] = hashRow(pixels, y);
+        }
+    }
+
+    private int getSampleStep() {
+        return Math.max(1, height / COLUMN_SAMPLE_ROWS);
+    }
+
+    /**
+     * Hashes every column over the rows at the given step, 1 for hashes of the full column data.
+     */
+    private void hashColumns(long pixels, long[] columns, int rowStep) {
+        Arrays.fill(columns, 0L);
+        var pairs = width >>> 1;
+        for (int y = rowStep >>> 1; y < height; y += rowStep) {
+            var row = pixels + (long) y * width * PixelUtils.BYTES_PER_PIXEL;
+            // Two pixels per read, the low half is the left pixel on little-endian machines
+            for (int i = 0; i < pairs; i++) {
+                var two = MemoryUtil.memGetLong(row + ((long) i << 3));
+                var x = i << 1;
+                columns[x] = (columns[x] ^ (int) two) * PRIME;
+                columns[x + 1] = (columns[x + 1] ^ (int) (two >>> 32)) * PRIME;
+            }
+            if ((width & 1) != 0) {
+                var x = width - 1;
+                columns[x] = (columns[x] ^ MemoryUtil.memGetInt(row + ((long) x << 2))) * PRIME;
+            }
+        }
+        for (int x = 0; x < width; x++) {
+            columns[x] = mix(columns[x]);
+        }
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Looks for a common offset at which at least half of the lines of the new frame appear in the old one.
+     *
+     * @return The offset of the old lines from the new ones, or 0 if there is none
+     */
+    private static int proposeShift(long[] previous, long[] current) {
+        var length = current.length;
+        int bestShift = 0, bestMatches = 0;
+
+        for (int anchor : ANCHORS) {
+            var line = length * anchor / 8;
+            var hash = current[line];
+            // Lines that did not change or that look like their neighbour, e.g. blank ones, are ambiguous
+            if (hash == previous[line] || (line > 0 && hash == current[line - 1])) continue;
+
+            var candidates = 0;
+            for (int i = 0; i < length && candidates < MAX_CANDIDATES; i++) {
+                if (previous[i] != hash) continue;
+                candidates++;
+                var shift = i - line;
+                if (shift == bestShift) continue;
+                var matches = countMatches(previous, current, shift);
+                if (matches > bestMatches) {
+                    bestShift = shift;
+                    bestMatches = matches;
+                }
+            }
+            if (bestMatches * 2 >= length) break;
+        }
+
+        return bestMatches * 2 >= length ? bestShift : 0;
+    }
+
+    /**
+     * Turns the shift proposed for two sets of line hashes into moves and damage. Only lines whose hashes match
+     * are moved or left alone, every other line is uploaded.
+     */
+    private @Nullable MCEFDamageRegion findShift(long[] previous, long[] current, boolean vertical) {
+        var bestShift = proposeShift(previous, current);
+        if (bestShift == 0) return null;
+
+        var length = current.length;
+
+        // Lines that moved become moves, lines that are neither moved nor unchanged are uploaded
+        this.vertical = vertical;
+        damage.clear();
+        long moved = 0;
+        int moveStart = -1, uploadStart = -1;
+        for (int i = 0; i <= length; i++) {
+            var unchanged = i < length && current[i] == previous[i];
+            var source = i + bestShift;
+            var isMoved = i < length && !unchanged && source >= 0 && source < length && current[i] == previous[source];
+            var isUploaded = i < length && !unchanged && !isMoved;
+
+            if (!isMoved && moveStart >= 0) {
+                addMove(moveStart + bestShift, moveStart, i - moveStart);
+                moved += i - moveStart;
+                moveStart = -1;
+            } else if (isMoved && moveStart < 0) {
+                moveStart = i;
+            }
+
+            if (!isUploaded && uploadStart >= 0) {
+                if (vertical) {
+                    damage.add(0, uploadStart, width, i - uploadStart);
+                } else {
+                    damage.add(uploadStart, 0, i - uploadStart, height);
+                }
+                uploadStart = -1;
+            } else if (isUploaded && uploadStart < 0) {
+                uploadStart = i;
+            }
+        }
+
+        bytesMoved += moved * (vertical ? width : height) * PixelUtils.BYTES_PER_PIXEL;
+        return damage;
+    }
+
+    private static int countMatches(long[] previous, long[] current, int shift) {
+        var from = Math.max(0, -shift);
+        var to = Math.min(current.length, previous.length - shift);
+        var matches = 0;
+        for (int i = from; i < to; i++) {
+            if (current[i] == previous[i + shift]) matches++;
+        }
+        return matches;
+    }
+
+    private void addMove(int source, int target, int length) {
+        var o = moveCount * 3;
+        if (o + 3 > moves.length) {
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        }
+        moves[o] = source;
+        moves[o + 1] = target;
+        moves[o + 2] = length;
+        moveCount++;
+    }
+
+    /**
+     * Discards the hashes, e.g. when a paint was uploaded without the moves of the detected shift.
+     */
+    void invalidate() {
+        valid = false;
+        moveCount = 0;
+    }
+
+    /**
+     * @return The number of moves of the last detected shift
+     */
+    int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * @return The first row, or column, a move copies from
+     */
+    int getMoveSource(int index) {
+        return moves[index * 3];
+    }
+
+    /**
+     * @return The first row, or column, a move copies to
+     */
+    int getMoveTarget(int index) {
+        return moves[index * 3 + 1];
+    }
+
+    /**
+     * @return The number of rows, or columns, a move copies
+     */
+    int getMoveLength(int index) {
+        return moves[index * 3 + 2];
+    }
+
+    /**
+     * @return true if the last detected shift moves rows, false if it moves columns
+     */
+    boolean isVertical() {
+        return vertical;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables scroll detection. Frames are hashed from the next paint on.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if the detector suspended itself because paints were not shifts
+     */
+    public boolean isSuspended() {
+        return suspendedPaints > 0;
+    }
+
+    /**
+     * @return The number of paints that were detected as shifts
+     */
+    public long getScrolls() {
+        return scrolls;
+    }
+
+    /**
+     * @return The number of bytes that were moved on the GPU instead of being uploaded
+     */
+    public long getBytesMoved() {
+        return bytesMoved;
+    }
+
+    /**
+     * @return The time spent hashing and comparing frames so far, in nanoseconds
+     */
+    public long getHashNanos() {
+        return hashNanos;
+    }
+}
@@ -0,0 +1,181 @@
+package su.asuna.mcef.cef;
+
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.handler.CefDisplayHandlerAdapter;
+import org.cef.handler.CefLoadHandlerAdapter;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import su.asuna.mcef.MCEF;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares one browser between every surface that shows the same page.
+ * <p>
+ * Showing a URL on many in-world screens would otherwise create a browser, a CEF renderer process and
+ * a texture upload per screen. {@link #acquire} instead hands out reference-counted {@link MCEFBrowserHandle}s
+ * to a single browser per URL and settings. Every handle can draw the browser's {@link MCEFRenderer};
+ * input and resizes are only forwarded from the owner handle, so surfaces don't fight over the page.
+ * The first handle is the owner, and ownership passes to the oldest remaining handle when the owner
+ * is closed. The browser is closed together with its last handle.
+ * <p>
+ * Browsers are shared by the URL they currently show. Once a shared browser finished loading its first page,
+ * navigating it, e.g. through {@link MCEFBrowser#loadURL} or a link, re-keys it by the new URL, so acquiring the
+ * URL it was created with opens a new browser again. Redirects while loading the first page keep the
+ * requested URL, so every surface asking for it still shares the browser.
+ */
+@NullMarked
+public class MCEFSharedBrowsers {
+
+    private record Key(String url, boolean transparent, int frameRate, boolean sharedTexture) {
+
+        private Key withUrl(String url) {
+            return new Key(url, transparent, frameRate, sharedTexture);
+        }
+    }
+
+    static final class Entry {
+        private Key key;
+        private final MCEFBrowser browser;
+        private final List<MCEFBrowserHandle> handles = new ArrayList<>();
+        // Set once the first page finished loading, address changes before are redirects
+        private boolean loaded = false;
+
+        private Entry(Key key, MCEFBrowser browser) {
+            this.key = key;
+            this.browser = browser;
+        }
+
+        MCEFBrowser getBrowser() {
+            return browser;
+        }
+    }
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+    // Every shared browser, including the ones whose URL is already shown by another shared browser
+    private final List<Entry> shared = new ArrayList<>();
+    private boolean listening = false;
+
+    /**
+     * Gets a handle to the browser showing the URL with the given settings, creating the browser if there is none.
+     * Will assert that MCEF has been initialized; throws a {@link RuntimeException} if not.
+     *
+     * @return a new handle, which must be closed once the surface no longer shows the browser
+     */
+    public synchronized MCEFBrowserHandle acquire(String url, boolean transparent,
+                                                  @Nullable MCEFBrowserSettings browserSettings) {
+        if (browserSettings == null) {
+            browserSettings = new MCEFBrowserSettings(60, false);
+        }
+
+        var key = new Key(url, transparent, browserSettings.windowless_frame_rate,
+                browserSettings.shared_texture_enabled);
+        var entry = entries.get(key);
+        if (entry == null) {
+            listen();
+            entry = new Entry(key, MCEF.INSTANCE.createBrowser(url, transparent, browserSettings));
+            entries.put(key, entry);
+            shared.add(entry);
+        }
+
+        var handle = new MCEFBrowserHandle(this, entry);
+        entry.handles.add(handle);
+        updateVisibility(entry);
+        return handle;
+    }
+
+    synchronized void release(MCEFBrowserHandle handle) {
+        var entry = handle.getEntry();
+        if (!entry.handles.remove(handle)) return;
+
+        if (entry.handles.isEmpty()) {
+            entries.remove(entry.key, entry);
+            shared.remove(entry);
+            entry.browser.close();
+        } else {
+            updateVisibility(entry);
+        }
+    }
+
+    private void listen() {
+        if (listening) return;
+        listening = true;
+
+        var client = MCEF.INSTANCE.getClient();
+        client.addLoadHandler(new CefLoadHandlerAdapter() {
+            @Override
+            public void onLoadEnd(CefBrowser browser, CefFrame frame, int httpStatusCode) {
+                if (frame.isMain()) onLoaded(browser);
+            }
+        });
+        client.addDisplayHandler(new CefDisplayHandlerAdapter() {
+            @Override
+            public void onAddressChange(CefBrowser browser, CefFrame frame, String url) {
+                if (frame.isMain()) onNavigated(browser, url);
+            }
+        });
+    }
+
+    private synchronized void onLoaded(CefBrowser browser) {
+        var entry = find(browser);
+        if (entry != null) entry.loaded = true;
+    }
+
+    /**
+     * Re-keys a shared browser by the URL it navigated to. If another shared browser already shows that URL,
+     * the navigated one is no longer handed out, but its handles keep working.
+     */
+    private synchronized void onNavigated(CefBrowser browser, String url) {
+        var entry = find(browser);
+        if (entry == null || !entry.loaded || entry.key.url().equals(url)) return;
+
+        entries.remove(entry.key, entry);
+        entry.key = entry.key.withUrl(url);
+        entries.putIfAbsent(entry.key, entry);
+    }
+
+    private @Nullable Entry find(CefBrowser browser) {
+        for (Entry entry : shared) {
+            if (entry.browser == browser) return entry;
+        }
+        return null;
+    }
+
+    synchronized boolean isOwner(MCEFBrowserHandle handle) {
+        var handles = handle.getEntry().handles;
+        return !handles.isEmpty() && handles.getFirst() == handle;
+    }
+
+    synchronized void claimOwnership(MCEFBrowserHandle handle) {
+        var handles = handle.getEntry().handles;
+        if (handles.remove(handle)) {
+            handles.addFirst(handle);
+        }
+    }
+
+    synchronized int getHandleCount(MCEFBrowserHandle handle) {
+        return handle.getEntry().handles.size();
+    }
+
+    /**
+     * The browser is shown as long as at least one of its handles is visible.
+     */
+    synchronized void updateVisibility(Entry entry) {
+        var visible = false;
+        for (MCEFBrowserHandle handle : entry.handles) {
+            visible |= handle.isVisible();
+        }
+        entry.browser.setVisible(visible);
+    }
+
+    /**
+     * @return the number of browsers currently shared
+     */
+    public synchronized int getBrowserCount() {
+        return shared.size();
+    }
+}
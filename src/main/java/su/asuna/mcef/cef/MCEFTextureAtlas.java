@@ -0,0 +1,294 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import net.minecraft.client.gui.render.TextureSetup;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import su.asuna.mcef.MCEF;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Packs the textures of many small browsers, e.g. HUD widgets, into shared atlas pages.
+ * <p>
+ * Renderers opt in with {@link MCEFRenderer#setAtlas(MCEFTextureAtlas)}. Each one then uploads into a
+ * {@link Region} of a page, and consumers draw it with the page's texture setup and the region's texture
+ * coordinates, so widgets on the same page can be drawn in one batch.
+ * <p>
+ * Regions are packed onto shelves. Space freed by resized or closed browsers is only reclaimed by
+ * {@link #defragment()}, which runs automatically once too much of the atlas is wasted. It repacks
+ * the live regions, copies their contents on the GPU and notifies their owners.
+ * <p>
+ * Must only be used on the render thread.
+ */
+@NullMarked
+public final class MCEFTextureAtlas implements Closeable {
+
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+    // Gap between regions, so that linear filtering doesn't pick up neighbours
+    private static final int PADDING = 2;
+    // Fraction of the allocated area that may be wasted before the atlas is defragmented
+    private static final double MAX_WASTE = 0.5;
+
+    /**
+     * Called when a region was moved by {@link #defragment()}. Its contents are preserved.
+     */
+    @FunctionalInterface
+    public interface MoveListener {
+        void onRegionMoved(Region region);
+    }
+
+    /**
+     * One texture of the atlas.
+     */
+    public static final class Page {
+        private final int textureId;
+        private final MCEFDirectTexture texture = new MCEFDirectTexture();
+        // y, height and x cursor of every shelf
+        private final List<int[]> shelves = new ArrayList<>();
+        private int shelfBottom = 0;
+
+        private Page(int textureId, int size) {
+            this.textureId = textureId;
+            texture.setDirectTextureId(textureId, size, size);
+        }
+
+        int getTextureId() {
+            return textureId;
+        }
+
+        /**
+         * @return The texture setup shared by every region on this page
+         */
+        public TextureSetup getTextureSetup() {
+            return texture.getTextureSetup();
+        }
+    }
+
+    /**
+     * The part of a page a renderer owns.
+     */
+    public final class Region {
+        private Page page;
+        private int x;
+        private int y;
+        private final int width;
+        private final int height;
+        private final @Nullable MoveListener listener;
+
+        private Region(Page page, int x, int y, int width, int height, @Nullable MoveListener listener) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.listener = listener;
+        }
+
+        public MCEFTextureAtlas getAtlas() {
+            return MCEFTextureAtlas.this;
+        }
+
+        public Page getPage() {
+            return page;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public float getMinU() {
+            return (float) x / pageSize;
+        }
+
+        public float getMinV() {
+            return (float) y / pageSize;
+        }
+
+        public float getMaxU() {
+            return (float) (x + width) / pageSize;
+        }
+
+        public float getMaxV() {
+            return (float) (y + height) / pageSize;
+        }
+    }
+
+    private final int pageSize;
+    private final List<Page> pages = new ArrayList<>();
+    private final List<Region> regions = new ArrayList<>();
+    private long allocatedArea = 0;
+    private long liveArea = 0;
+    private int defragmentations = 0;
+
+    public MCEFTextureAtlas() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize The width and height of every page
+     */
+    public MCEFTextureAtlas(int pageSize) {
+        this.pageSize = Math.min(pageSize, RenderSystem.getDevice().getMaxTextureSize());
+    }
+
+    /**
+     * @return true if a region of the given size can be allocated. Regions may take at most half a page.
+     */
+    public boolean fits(int width, int height) {
+        return width > 0 && height > 0 && width + PADDING <= pageSize / 2 && height + PADDING <= pageSize / 2;
+    }
+
+    /**
+     * Allocates a region. Its contents are undefined.
+     *
+     * @param listener Called when the region is moved by defragmentation
+     * @return The region, or null if it does not {@link #fits(int, int) fit}
+     */
+    public @Nullable Region allocate(int width, int height, @Nullable MoveListener listener) {
+        RenderSystem.assertOnRenderThread();
+        if (!fits(width, height)) return null;
+
+        var region = place(width, height, listener);
+        regions.add(region);
+        liveArea += area(width, height);
+        return region;
+    }
+
+    /**
+     * Frees a region. Its space is reclaimed by the next defragmentation.
+     */
+    public void free(Region region) {
+        RenderSystem.assertOnRenderThread();
+        if (!regions.remove(region)) return;
+
+        liveArea -= area(region.width, region.height);
+        if (allocatedArea > 0 && liveArea < allocatedArea * (1 - MAX_WASTE)) {
+            defragment();
+        }
+    }
+
+    private static long area(int width, int height) {
+        return (long) (width + PADDING) * (height + PADDING);
+    }
+
+    private Region place(int width, int height, @Nullable MoveListener listener) {
+        var w = width + PADDING;
+        var h = height + PADDING;
+        allocatedArea += (long) w * h;
+
+        for (Page page : pages) {
+            // First fit on an existing shelf that is not much taller than the region
+            for (int[] shelf : page.shelves) {
+                if (h <= shelf[1] && h * 2 > shelf[1] && shelf[2] + w <= pageSize) {
+                    var region = new Region(page, shelf[2], shelf[0], width, height, listener);
+                    shelf[2] += w;
+                    return region;
+                }
+            }
+            if (page.shelfBottom + h <= pageSize) {
+                page.shelves.add(new int[]{page.shelfBottom, h, w});
+                var region = new Region(page, 0, page.shelfBottom, width, height, listener);
+                page.shelfBottom += h;
+                return region;
+            }
+        }
+
+        var page = new Page(MCEF.INSTANCE.getTexturePool().acquire(pageSize, pageSize), pageSize);
+        pages.add(page);
+        page.shelves.add(new int[]{0, h, w});
+        page.shelfBottom = h;
+        return new Region(page, 0, 0, width, height, listener);
+    }
+
+    /**
+     * Repacks every live region into as few pages as possible, tallest first. Region contents are copied
+     * on the GPU, the owners of moved regions are notified and pages that are no longer needed are released.
+     */
+    public void defragment() {
+        RenderSystem.assertOnRenderThread();
+
+        var oldPages = new ArrayList<>(pages);
+        pages.clear();
+        allocatedArea = 0;
+
+        var sorted = new ArrayList<>(regions);
+        sorted.sort(Comparator.comparingInt((Region region) -> region.height).reversed());
+        var moved = new ArrayList<Region>();
+        for (Region region : sorted) {
+            var target = place(region.width, region.height, null);
+            if (target.page != region.page || target.x != region.x || target.y != region.y) {
+                copy(region.page, region.x, region.y, target.page, target.x, target.y, region.width, region.height);
+                region.page = target.page;
+                region.x = target.x;
+                region.y = target.y;
+                moved.add(region);
+            }
+        }
+
+        var pool = MCEF.INSTANCE.getTexturePool();
+        for (Page page : oldPages) {
+            page.texture.close();
+            pool.release(page.textureId, pageSize, pageSize);
+        }
+        defragmentations++;
+
+        for (Region region : moved) {
+            if (region.listener != null) region.listener.onRegionMoved(region);
+        }
+    }
+
+    private static void copy(Page source, int sourceX, int sourceY, Page destination, int x, int y,
+                             int width, int height) {
+        MCEFTextureCopy.copy(source.textureId, sourceX, sourceY, destination.textureId, x, y, width, height);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return The pages in use, consumers can batch draws per page
+     */
+    public List<Page> getPages() {
+        return List.copyOf(pages);
+    }
+
+    public int getRegionCount() {
+        return regions.size();
+    }
+
+    public int getDefragmentations() {
+        return defragmentations;
+    }
+
+    @Override
+    public void close() {
+        RenderSystem.assertOnRenderThread();
+
+        var pool = MCEF.INSTANCE.getTexturePool();
+        for (Page page : pages) {
+            page.texture.close();
+            pool.release(page.textureId, pageSize, pageSize);
+        }
+        pages.clear();
+        regions.clear();
+        allocatedArea = 0;
+        liveArea = 0;
+    }
+}
@@ -0,0 +1,53 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.jspecify.annotations.NullMarked;
+import org.lwjgl.opengl.GL;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL43.glCopyImageSubData;
+
+/**
+ * Copies rectangles between textures on the GPU, with {@code glCopyImageSubData} where available and a
+ * framebuffer blit otherwise. Source and destination rectangles must not overlap.
+ */
+@NullMarked
+final class MCEFTextureCopy {
+
+    private static int readFramebuffer = 0;
+    private static int drawFramebuffer = 0;
+
+    private MCEFTextureCopy() {
+    }
+
+    /**
+     * Copies a rectangle of the first level of one RGBA8 texture into another. Must be called on the render thread.
+     */
+    static void copy(int sourceId, int sourceX, int sourceY, int destinationId, int x, int y, int width, int height) {
+        RenderSystem.assertOnRenderThread();
+
+        var capabilities = GL.getCapabilities();
+        if (capabilities.OpenGL43 || capabilities.GL_ARB_copy_image) {
+            glCopyImageSubData(sourceId, GL_TEXTURE_2D, 0, sourceX, sourceY, 0,
+                    destinationId, GL_TEXTURE_2D, 0, x, y, 0, width, height, 1);
+            return;
+        }
+
+        // Without copy_image, blit between two framebuffers
+        if (readFramebuffer == 0) {
+            readFramebuffer = glGenFramebuffers();
+            drawFramebuffer = glGenFramebuffers();
+        }
+        var previousRead = glGetInteger(GL_READ_FRAMEBUFFER_BINDING);
+        var previousDraw = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, sourceId, 0);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, drawFramebuffer);
+        glFramebufferTexture2D(GL_DRAW_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, destinationId, 0);
+        glBlitFramebuffer(sourceX, sourceY, sourceX + width, sourceY + height, x, y, x + width, y + height,
+                GL_COLOR_BUFFER_BIT, GL_NEAREST);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, previousRead);
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, previousDraw);
+    }
+}
@@ -0,0 +1,205 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.opengl.GlStateManager;
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.opengl.GL;
+import su.asuna.mcef.MCEF;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+import static org.lwjgl.opengl.GL42.glTexStorage2D;
+import static su.asuna.mcef.MCEF.mc;
+
+/**
+ * A pool of browser textures shared by every {@link MCEFRenderer}.
+ * <p>
+ * Opening and closing browsers, e.g. in a tab switcher or for pop-in HUD widgets, would otherwise allocate
+ * and free video memory over and over. Renderers borrow RGBA8 textures of an exact size and return them when
+ * they are closed or resized. Returned textures are kept for reuse until they have been idle for longer than
+ * the idle timeout, or until the idle textures exceed the video memory cap, oldest first.
+ * <p>
+ * Everything but the statistics has to be used on the render thread.
+ */
+@NullMarked
+public class MCEFTexturePool {
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30_000;
+    public static final long DEFAULT_MAX_IDLE_BYTES = 256L * 1024 * 1024;
+
+    private record Entry(int textureId, int width, int height, long releasedNanos) {
+        long bytes() {
+            return (long) width * height * 4;
+        }
+    }
+
+    // Oldest first
+    private final ArrayDeque<Entry> idle = new ArrayDeque<>();
+    private volatile long idleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+    private volatile long maxIdleBytes = DEFAULT_MAX_IDLE_BYTES;
+    private @Nullable ScheduledFuture<?> evictionTask;
+
+    private volatile long idleBytes = 0;
+    private volatile int idleCount = 0;
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+    private volatile long evictions = 0;
+    private volatile int borrowed = 0;
+
+    /**
+     * Borrows a texture with immutable RGBA8 storage of exactly the given size. Its contents are undefined.
+     *
+     * @return The OpenGL texture ID
+     */
+    public int acquire(int width, int height) {
+        RenderSystem.assertOnRenderThread();
+        evictExpired();
+        borrowed++;
+
+        // Prefer the most recently returned texture, it is the most likely to still be resident
+        for (Iterator<Entry> it = idle.descendingIterator(); it.hasNext(); ) {
+            var entry = it.next();
+            if (entry.width() == width && entry.height() == height) {
+                it.remove();
+                updateIdle(-entry.bytes(), -1);
+                hits++;
+                return entry.textureId();
+            }
+        }
+
+        misses++;
+        return allocate(width, height);
+    }
+
+    /**
+     * Returns a texture obtained from {@link #acquire(int, int)}. It must not be used by the caller afterwards.
+     */
+    public void release(int textureId, int width, int height) {
+        RenderSystem.assertOnRenderThread();
+        borrowed--;
+
+        var entry = new Entry(textureId, width, height, System.nanoTime());
+        idle.addLast(entry);
+        updateIdle(entry.bytes(), 1);
+        evictExpired();
+
+        while (idleBytes > maxIdleBytes && !idle.isEmpty()) {
+            evict(idle.pollFirst());
+        }
+
+        scheduleEviction();
+    }
+
+    /**
+     * Frees every idle texture.
+     */
+    public void trim() {
+        RenderSystem.assertOnRenderThread();
+        while (!idle.isEmpty()) {
+            evict(idle.pollFirst());
+        }
+    }
+
+    private void evictExpired() {
+        var deadline = System.nanoTime() - idleTimeoutMs * 1_000_000L;
+        while (!idle.isEmpty() && idle.peekFirst().releasedNanos() < deadline) {
+            evict(idle.pollFirst());
+        }
+    }
+
+    private void evict(Entry entry) {
+        glDeleteTextures(entry.textureId());
+        updateIdle(-entry.bytes(), -1);
+        evictions++;
+    }
+
+    private void updateIdle(long bytes, int count) {
+        idleBytes += bytes;
+        idleCount += count;
+    }
+
+    private synchronized void scheduleEviction() {
+        if (evictionTask != null) return;
+
+        // Idle textures have to expire even if no renderer touches the pool anymore
+        var period = Math.max(1000, idleTimeoutMs / 2);
+        evictionTask = MCEF.INSTANCE.getScheduler().scheduleWithFixedDelay(() -> {
+            if (idleCount > 0) mc().schedule(this::evictExpired);
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static int allocate(int width, int height) {
+        var textureId = glGenTextures();
+        GlStateManager._bindTexture(textureId);
+        var capabilities = GL.getCapabilities();
+        if (capabilities.OpenGL42 || capabilities.GL_ARB_texture_storage) {
+            glTexStorage2D(GL_TEXTURE_2D, 1, GL_RGBA8, width, height);
+        } else {
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0,
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, (ByteBuffer) null);
+        }
+        return textureId;
+    }
+
+    public long getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = Math.max(0, idleTimeoutMs);
+    }
+
+    public long getMaxIdleBytes() {
+        return maxIdleBytes;
+    }
+
+    /**
+     * Caps the video memory held by idle textures. Borrowed textures are not counted.
+     */
+    public void setMaxIdleBytes(long maxIdleBytes) {
+        this.maxIdleBytes = Math.max(0, maxIdleBytes);
+    }
+
+    /**
+     * @return The number of borrows served by an idle texture
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of borrows that had to allocate a new texture
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of idle textures freed because they expired or exceeded the cap
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getIdleBytes() {
+        return idleBytes;
+    }
+
+    public int getIdleCount() {
+        return idleCount;
+    }
+
+    public int getBorrowedCount() {
+        return borrowed;
+    }
+}
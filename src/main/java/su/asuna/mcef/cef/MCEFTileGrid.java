@@ -0,0 +1,252 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.opengl.GlStateManager;
+import com.mojang.blaze3d.textures.GpuTextureView;
+import net.minecraft.client.gui.render.TextureSetup;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import su.asuna.mcef.MCEF;
+import su.asuna.mcef.utils.PixelUtils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+
+/**
+ * Splits a browser frame into a grid of fixed-size textures.
+ * <p>
+ * Used by {@link MCEFRenderer} for frames larger than the maximum texture size, or when tiling is requested.
+ * Uploads only touch the tiles a region intersects, and no single upload is larger than a tile. Every tile
+ * texture has the full tile size and is borrowed from the {@link MCEFTexturePool}; tiles on the right and bottom
+ * edges only use the top-left part of theirs, see {@link Tile#getMaxU()} and {@link Tile#getMaxV()}.
+ * <p>
+ * Must only be used on the render thread.
+ */
+@NullMarked
+public final class MCEFTileGrid implements Closeable {
+
+    /**
+     * One texture of the grid.
+     */
+    public static final class Tile {
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int tileSize;
+        private final int textureId;
+        private final MCEFDirectTexture texture = new MCEFDirectTexture();
+
+        private Tile(int x, int y, int width, int height, int tileSize, int textureId) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            this.textureId = textureId;
+            texture.setDirectTextureId(textureId, tileSize, tileSize);
+        }
+
+        /**
+         * @return The x-coordinate of the tile in the frame
+         */
+        public int getX() {
+            return x;
+        }
+
+        /**
+         * @return The y-coordinate of the tile in the frame
+         */
+        public int getY() {
+            return y;
+        }
+
+        /**
+         * @return The width of the part of the frame covered by the tile
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return The height of the part of the frame covered by the tile
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return The horizontal texture coordinate of the right edge of the covered part
+         */
+        public float getMaxU() {
+            return (float) width / tileSize;
+        }
+
+        /**
+         * @return The vertical texture coordinate of the bottom edge of the covered part
+         */
+        public float getMaxV() {
+            return (float) height / tileSize;
+        }
+
+        public @Nullable GpuTextureView getTextureView() {
+            return texture.getTextureView();
+        }
+
+        public TextureSetup getTextureSetup() {
+            return texture.getTextureSetup();
+        }
+    }
+
+    private final int tileSize;
+    private final List<Tile> tiles = new ArrayList<>();
+    private final List<Tile> tilesView = Collections.unmodifiableList(tiles);
+    private int columns = 0;
+    private int width = 0;
+    private int height = 0;
+
+    /**
+     * @param tileSize The width and height of every tile texture
+     */
+    MCEFTileGrid(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Lays the grid out for a frame of the given size. Tile contents are undefined afterwards.
+     *
+     * @return false if the grid already had that size
+     */
+    boolean resize(int width, int height) {
+        if (width == this.width && height == this.height) return false;
+
+        releaseTiles();
+        this.width = width;
+        this.height = height;
+        this.columns = (width + tileSize - 1) / tileSize;
+
+        var pool = MCEF.INSTANCE.getTexturePool();
+        for (int y = 0; y < height; y += tileSize) {
+            for (int x = 0; x < width; x += tileSize) {
+                var textureId = pool.acquire(tileSize, tileSize);
+                tiles.add(new Tile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y),
+                        tileSize, textureId));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Uploads a rectangle of pixels into every tile it intersects.
+     *
+     * @param pixels      The address of the source buffer, or the offset into the bound pixel unpack buffer
+     * @param bufferWidth The row length of the source in pixels
+     * @param sourceX     The x-coordinate of the rectangle in the source
+     * @param sourceY     The y-coordinate of the rectangle in the source
+     * @param x           The x-coordinate of the rectangle in the frame
+     * @param y           The y-coordinate of the rectangle in the frame
+     * @param width       The width of the rectangle
+     * @param height      The height of the rectangle
+     */
+    void upload(long pixels, int bufferWidth, int sourceX, int sourceY, int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x1 <= x0 || y1 <= y0) return;
+
+        GlStateManager._pixelStore(GL_UNPACK_ROW_LENGTH, bufferWidth);
+        for (int row = y0 / tileSize; row <= (y1 - 1) / tileSize; row++) {
+            for (int column = x0 / tileSize; column <= (x1 - 1) / tileSize; column++) {
+                var tile = tiles.get(row * columns + column);
+                int tx0 = Math.max(x0, tile.x);
+                int ty0 = Math.max(y0, tile.y);
+                int tx1 = Math.min(x1, tile.x + tile.width);
+                int ty1 = Math.min(y1, tile.y + tile.height);
+
+                GlStateManager._bindTexture(tile.textureId);
+                GlStateManager._pixelStore(GL_UNPACK_SKIP_PIXELS, sourceX + tx0 - x);
+                GlStateManager._pixelStore(GL_UNPACK_SKIP_ROWS, sourceY + ty0 - y);
+                nglTexSubImage2D(GL_TEXTURE_2D, 0, tx0 - tile.x, ty0 - tile.y, tx1 - tx0, ty1 - ty0,
+                        GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, pixels);
+            }
+        }
+    }
+
+    /**
+     * Copies a rectangle of a frame held in a texture into every tile it intersects, on the GPU.
+     *
+     * @param sourceId The texture holding the whole frame at its origin
+     * @param x        The x-coordinate of the rectangle in the frame
+     * @param y        The y-coordinate of the rectangle in the frame
+     * @param width    The width of the rectangle
+     * @param height   The height of the rectangle
+     */
+    void copy(int sourceId, int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        if (x1 <= x0 || y1 <= y0) return;
+
+        for (int row = y0 / tileSize; row <= (y1 - 1) / tileSize; row++) {
+            for (int column = x0 / tileSize; column <= (x1 - 1) / tileSize; column++) {
+                var tile = tiles.get(row * columns + column);
+                int tx0 = Math.max(x0, tile.x);
+                int ty0 = Math.max(y0, tile.y);
+                int tx1 = Math.min(x1, tile.x + tile.width);
+                int ty1 = Math.min(y1, tile.y + tile.height);
+                MCEFTextureCopy.copy(sourceId, tx0, ty0, tile.textureId, tx0 - tile.x, ty0 - tile.y,
+                        tx1 - tx0, ty1 - ty0);
+            }
+        }
+    }
+
+    /**
+     * @return The tiles in row-major order
+     */
+    public List<Tile> getTiles() {
+        return tilesView;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return columns == 0 ? 0 : tiles.size() / columns;
+    }
+
+    /**
+     * @return The size of the video memory held by the tiles in bytes
+     */
+    public long getTextureBytes() {
+        return (long) tiles.size() * tileSize * tileSize * PixelUtils.BYTES_PER_PIXEL;
+    }
+
+    private void releaseTiles() {
+        var pool = MCEF.INSTANCE.getTexturePool();
+        for (Tile tile : tiles) {
+            tile.texture.close();
+            pool.release(tile.textureId, tileSize, tileSize);
+        }
+        tiles.clear();
+        columns = 0;
+        width = 0;
+        height = 0;
+    }
+
+    @Override
+    public void close() {
+        releaseTiles();
+    }
+}
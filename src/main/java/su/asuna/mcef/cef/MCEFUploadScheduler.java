@@ -0,0 +1,259 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.jspecify.annotations.NullMarked;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static su.asuna.mcef.MCEF.mc;
+
+/**
+ * Spreads the texture uploads of all browsers over frames.
+ * <p>
+ * Browsers with a frame mailbox submit themselves when a frame was staged. Once per frame, at the start of
+ * Minecraft's tick, the scheduler uploads the pending frames in order of priority until its time or byte budget
+ * is spent and carries the rest over to the next frame. Shown browsers come before hidden ones, focused before
+ * unfocused and larger before smaller ones on screen; a browser that waited {@value #MAX_DEFERRED_FRAMES}
+ * frames goes first. At least one upload runs per frame, so a single upload may overrun the budget.
+ * <p>
+ * Browsers without a frame mailbox upload inside their paint callback and bypass the scheduler,
+ * since CEF's buffer is only valid during the callback.
+ */
+@NullMarked
+public final class MCEFUploadScheduler {
+
+    public static final long DEFAULT_TIME_BUDGET_NANOS = 4_000_000;
+    public static final long DEFAULT_BYTE_BUDGET = 64L * 1024 * 1024;
+    public static final int MAX_DEFERRED_FRAMES = 4;
+
+    private static final class Entry {
+        private final MCEFBrowser browser;
+        private final long since;
+        // Computed once per frame, browser state may change while sorting
+        private double priority;
+
+        private Entry(MCEFBrowser browser, long since) {
+            this.browser = browser;
+            this.since = since;
+        }
+    }
+
+    private static final Comparator<Entry> PRIORITY = Comparator.comparingDouble((Entry entry) -> entry.priority)
+            .reversed();
+
+    private final Queue<MCEFBrowser> submitted = new ConcurrentLinkedQueue<>();
+    // Owned by the render thread
+    private final List<Entry> pending = new ArrayList<>();
+    private final Map<MCEFBrowser, Entry> entries = new IdentityHashMap<>();
+    private final Runnable unboundedTask = this::runUnbounded;
+    private long frame = 0;
+
+    private volatile boolean enabled = true;
+    private volatile long timeBudgetNanos = DEFAULT_TIME_BUDGET_NANOS;
+    private volatile long byteBudget = DEFAULT_BYTE_BUDGET;
+
+    // Only written by the render thread
+    private volatile long uploads;
+    private volatile long uploadedBytes;
+    private volatile long deferredUploads;
+    private volatile long deferredBytes;
+    private volatile long overruns;
+    private volatile long lastFrameNanos;
+    private volatile long lastFrameBytes;
+
+    /**
+     * Queues the staged frame of a browser for upload. May be called from any thread.
+     */
+    void submit(MCEFBrowser browser) {
+        submitted.add(browser);
+        if (!enabled) {
+            mc().schedule(unboundedTask);
+        }
+    }
+
+    /**
+     * Drops a browser's pending upload, e.g. when it is closed. Must be called on the render thread.
+     */
+    void remove(MCEFBrowser browser) {
+        RenderSystem.assertOnRenderThread();
+
+        submitted.remove(browser);
+        var entry = entries.remove(browser);
+        if (entry != null) pending.remove(entry);
+    }
+
+    /**
+     * Runs the pending uploads of this frame within the budget. Called once per frame on the render thread.
+     */
+    public void runFrame() {
+        RenderSystem.assertOnRenderThread();
+
+        frame++;
+        collectSubmitted();
+        if (pending.isEmpty()) return;
+
+        if (!enabled) {
+            runUnbounded();
+            return;
+        }
+
+        for (Entry entry : pending) {
+            entry.priority = getPriority(entry);
+        }
+        pending.sort(PRIORITY);
+        var timeBudget = timeBudgetNanos;
+        var byteBudget = this.byteBudget;
+        var start = System.nanoTime();
+        long bytes = 0;
+        int index = 0;
+        while (index < pending.size()) {
+            // At least one upload per frame, so that every browser makes progress
+            if (index > 0 && (System.nanoTime() - start >= timeBudget || bytes >= byteBudget)) break;
+            var browser = pending.get(index++).browser;
+            entries.remove(browser);
+            bytes += browser.uploadStagedFrame();
+        }
+        var elapsed = System.nanoTime() - start;
+
+        for (int i = index; i < pending.size(); i++) {
+            deferredUploads++;
+            var mailbox = pending.get(i).browser.getFrameMailbox();
+            if (mailbox != null) deferredBytes += mailbox.getPendingBytes();
+        }
+        pending.subList(0, index).clear();
+
+        if (elapsed > timeBudget || bytes > byteBudget) overruns++;
+        uploads += index;
+        uploadedBytes += bytes;
+        lastFrameNanos = elapsed;
+        lastFrameBytes = bytes;
+    }
+
+    private void collectSubmitted() {
+        MCEFBrowser browser;
+        while ((browser = submitted.poll()) != null) {
+            if (!entries.containsKey(browser)) {
+                var entry = new Entry(browser, frame);
+                entries.put(browser, entry);
+                pending.add(entry);
+            }
+        }
+    }
+
+    private void runUnbounded() {
+        collectSubmitted();
+        long bytes = 0;
+        for (Entry entry : pending) {
+            bytes += entry.browser.uploadStagedFrame();
+        }
+        uploads += pending.size();
+        uploadedBytes += bytes;
+        pending.clear();
+        entries.clear();
+    }
+
+    private double getPriority(Entry entry) {
+        var browser = entry.browser;
+        var rank = 0;
+        if (frame - entry.since >= MAX_DEFERRED_FRAMES) rank += 4;
+        if (browser.isShown()) rank += 2;
+        if (browser.isFocused()) rank += 1;
+
+        var screenSize = browser.getScreenSize();
+        if (screenSize <= 0) {
+            var renderer = browser.getBrowserRenderer();
+            screenSize = Math.max(renderer.getWidth(), renderer.getHeight());
+        }
+        // The rank always outweighs the size on screen
+        return rank * 1e9 + Math.min(screenSize, 1e9 - 1);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables budgeting. When disabled, staged frames are uploaded as soon as the render thread
+     * runs its queued tasks, as without the scheduler.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTimeBudgetNanos() {
+        return timeBudgetNanos;
+    }
+
+    /**
+     * Sets the time uploads may take per frame, in nanoseconds.
+     */
+    public void setTimeBudgetNanos(long timeBudgetNanos) {
+        this.timeBudgetNanos = Math.max(0, timeBudgetNanos);
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * Sets the number of bytes that may be uploaded per frame.
+     */
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = Math.max(0, byteBudget);
+    }
+
+    /**
+     * @return The number of staged frames that were uploaded
+     */
+    public long getUploads() {
+        return uploads;
+    }
+
+    /**
+     * @return The number of bytes that were uploaded
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return The number of times a pending upload was carried over to the next frame
+     */
+    public long getDeferredUploads() {
+        return deferredUploads;
+    }
+
+    /**
+     * @return The number of damaged bytes of the staged frames carried over to the next frame, summed over all frames
+     */
+    public long getDeferredBytes() {
+        return deferredBytes;
+    }
+
+    /**
+     * @return The number of frames in which the uploads exceeded the time or byte budget
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return The time the uploads of the last frame took, in nanoseconds
+     */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    /**
+     * @return The number of bytes uploaded in the last frame
+     */
+    public long getLastFrameBytes() {
+        return lastFrameBytes;
+    }
+}
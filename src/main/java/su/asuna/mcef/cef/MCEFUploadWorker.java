@@ -0,0 +1,468 @@
+package su.asuna.mcef.cef;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+import org.lwjgl.opengl.GL;
+import su.asuna.mcef.MCEF;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_BGRA;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_UNSIGNED_INT_8_8_8_8_REV;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL42.glTexStorage2D;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static su.asuna.mcef.MCEF.mc;
+
+/**
+ * Uploads the staged frames of browsers on a dedicated thread, so that the render thread only copies
+ * finished frames on the GPU.
+ * <p>
+ * The worker owns a hidden window whose OpenGL context shares objects with Minecraft's. For every browser it keeps
+ * a staging texture that always holds the latest complete frame: the worker takes the browser's frame from its
+ * mailbox, uploads the damaged regions into the staging texture and fences the upload. The render thread waits
+ * for that fence on the GPU, copies the damaged regions into the browser's texture and fences the copy in turn;
+ * the worker does not touch the staging texture again before that copy is done. Frames that are staged while a
+ * copy is pending are merged into the next upload, so the browser texture never shows a partly uploaded frame.
+ * <p>
+ * Requires sync objects. Frames larger than the maximum texture size cannot be staged; the render thread uploads
+ * them from the mailbox slot instead.
+ */
+@NullMarked
+public final class MCEFUploadWorker implements Closeable {
+
+    /**
+     * The upload state of one browser.
+     */
+    static final class Job {
+        private final MCEFUploadWorker worker;
+        private final MCEFBrowser browser;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private final Runnable task;
+        // Held while the worker reads the browser's mailbox, so that it is not closed underneath
+        private final Object uploadLock = new Object();
+
+        // Owned by the worker thread
+        private final MCEFPaintPlanner planner = new MCEFPaintPlanner();
+        private int stagingTexture = 0;
+        private int stagingWidth = 0;
+        private int stagingHeight = 0;
+
+        // Guarded by the job
+        private final MCEFDamageRegion damage = new MCEFDamageRegion();
+        private int width = 0;
+        private int height = 0;
+        private int publishedTexture = 0;
+        private @Nullable ByteBuffer publishedBuffer;
+        private long uploadFence = 0;
+        private long copyFence = 0;
+        private boolean copyPending = false;
+        private boolean skipped = false;
+        private boolean closed = false;
+
+        // Owned by the render thread, valid between beginCopy and endCopy
+        private final MCEFDamageRegion copyDamage = new MCEFDamageRegion();
+        private int copyWidth = 0;
+        private int copyHeight = 0;
+        private int copyTexture = 0;
+        private @Nullable ByteBuffer copyBuffer;
+
+        private Job(MCEFUploadWorker worker, MCEFBrowser browser) {
+            this.worker = worker;
+            this.browser = browser;
+            this.task = () -> worker.process(this);
+        }
+
+        MCEFUploadWorker getWorker() {
+            return worker;
+        }
+
+        /**
+         * Queues the upload of the frame staged in the browser's mailbox. May be called from any thread.
+         */
+        void submit() {
+            worker.submit(this);
+        }
+
+        /**
+         * @return The width of the frame being copied
+         */
+        int getWidth() {
+            return copyWidth;
+        }
+
+        /**
+         * @return The height of the frame being copied
+         */
+        int getHeight() {
+            return copyHeight;
+        }
+
+        /**
+         * @return The staging texture holding the complete frame being copied, or 0 if the frame is too large for
+         * a texture and has to be uploaded from {@link #getBuffer()}
+         */
+        int getTexture() {
+            return copyTexture;
+        }
+
+        /**
+         * @return The mailbox slot holding the frame being copied if it is too large for a texture, or null
+         */
+        @Nullable ByteBuffer getBuffer() {
+            return copyBuffer;
+        }
+    }
+
+    private final long window;
+    private final Thread thread;
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private final Set<Job> jobs = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+    // Owned by the worker thread
+    private int maxTextureSize = 0;
+
+    // Only written by the worker thread
+    private volatile long uploads;
+    private volatile long uploadedBytes;
+    private volatile long uploadNanos;
+
+    private MCEFUploadWorker(long window) {
+        this.window = window;
+        this.thread = new Thread(this::run, "MCEF-Upload");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Creates the worker and its shared context. Must be called on the render thread.
+     *
+     * @return The worker, or null if the current context does not support it
+     */
+    public static @Nullable MCEFUploadWorker create() {
+        RenderSystem.assertOnRenderThread();
+
+        var capabilities = GL.getCapabilities();
+        if (!capabilities.OpenGL32 && !capabilities.GL_ARB_sync) {
+            MCEF.INSTANCE.LOGGER.info("Sync objects are not supported, uploads stay on the render thread");
+            return null;
+        }
+
+        // The shared context has to match Minecraft's
+        var mainWindow = mc().getWindow().handle();
+        glfwDefaultWindowHints();
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        glfwWindowHint(GLFW_CLIENT_API, glfwGetWindowAttrib(mainWindow, GLFW_CLIENT_API));
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, glfwGetWindowAttrib(mainWindow, GLFW_CONTEXT_VERSION_MAJOR));
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, glfwGetWindowAttrib(mainWindow, GLFW_CONTEXT_VERSION_MINOR));
+        glfwWindowHint(GLFW_OPENGL_PROFILE, glfwGetWindowAttrib(mainWindow, GLFW_OPENGL_PROFILE));
+        glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, glfwGetWindowAttrib(mainWindow, GLFW_OPENGL_FORWARD_COMPAT));
+        var window = glfwCreateWindow(1, 1, "MCEF Upload", NULL, mainWindow);
+        glfwDefaultWindowHints();
+
+        if (window == NULL) {
+            MCEF.INSTANCE.LOGGER.warn("Failed to create a shared context, uploads stay on the render thread");
+            return null;
+        }
+        return new MCEFUploadWorker(window);
+    }
+
+    private void run() {
+        glfwMakeContextCurrent(window);
+        GL.createCapabilities();
+        maxTextureSize = glGetInteger(GL_MAX_TEXTURE_SIZE);
+
+        try {
+            while (running) {
+                var task = tasks.take();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    MCEF.INSTANCE.LOGGER.error("Browser upload failed", e);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // Closed
+        } finally {
+            for (Job job : jobs) {
+                deleteStaging(job);
+            }
+            glFinish();
+            GL.setCapabilities(null);
+            glfwMakeContextCurrent(NULL);
+        }
+    }
+
+    /**
+     * Starts uploading the staged frames of a browser on the worker. Must be called on the render thread.
+     */
+    Job register(MCEFBrowser browser) {
+        var job = new Job(this, browser);
+        jobs.add(job);
+        return job;
+    }
+
+    /**
+     * Stops uploading the frames of a browser and frees its staging texture. Must be called on the render thread.
+     */
+    void unregister(Job job) {
+        RenderSystem.assertOnRenderThread();
+
+        // Waits for an upload in progress, the mailbox may be closed afterwards
+        synchronized (job.uploadLock) {
+            synchronized (job) {
+                job.closed = true;
+                if (job.uploadFence != 0) {
+                    glDeleteSync(job.uploadFence);
+                    job.uploadFence = 0;
+                }
+            }
+        }
+        jobs.remove(job);
+        tasks.add(() -> deleteStaging(job));
+    }
+
+    /**
+     * Queues the upload of the frame staged in a browser's mailbox. May be called from any thread.
+     */
+    void submit(Job job) {
+        if (running && job.queued.compareAndSet(false, true)) {
+            tasks.add(job.task);
+        }
+    }
+
+    private void process(Job job) {
+        job.queued.set(false);
+
+        synchronized (job.uploadLock) {
+            synchronized (job) {
+                if (job.closed) return;
+                if (job.copyPending) {
+                    // The staging texture is still needed, the frame is picked up once it was copied
+                    job.skipped = true;
+                    return;
+                }
+                if (job.copyFence != 0) {
+                    glWaitSync(job.copyFence, 0, GL_TIMEOUT_IGNORED);
+                    glDeleteSync(job.copyFence);
+                    job.copyFence = 0;
+                }
+            }
+            if (!upload(job)) return;
+        }
+        job.browser.scheduleUpload();
+    }
+
+    private boolean upload(Job job) {
+        var frameMailbox = job.browser.getFrameMailbox();
+        if (frameMailbox == null) return false;
+        var slot = frameMailbox.acquire();
+        if (slot == null || slot.getBuffer() == null) return false;
+
+        var start = System.nanoTime();
+        var width = slot.getWidth();
+        var height = slot.getHeight();
+        if (width > maxTextureSize || height > maxTextureSize) {
+            // Too large to stage, the render thread uploads it straight from the slot. The slot stays valid
+            // until the next acquire, which only happens once the render thread is done with it.
+            deleteStaging(job);
+            synchronized (job) {
+                job.damage.add(slot.getDamage());
+                job.width = width;
+                job.height = height;
+                job.publishedTexture = 0;
+                job.publishedBuffer = slot.getBuffer();
+                job.copyPending = true;
+            }
+            return true;
+        }
+
+        var resized = ensureStaging(job, width, height);
+        var plan = job.planner;
+        if (resized) {
+            plan.plan(0, 0, width, height, width, height);
+        } else {
+            plan.plan(slot.getDamage(), width, height);
+        }
+
+        // Blaze3d's state tracking belongs to the render thread, this context is driven directly
+        glBindTexture(GL_TEXTURE_2D, job.stagingTexture);
+        glPixelStorei(GL_UNPACK_ROW_LENGTH, width);
+        for (int i = 0; i < plan.size(); i++) {
+            glPixelStorei(GL_UNPACK_SKIP_PIXELS, plan.getX(i));
+            glPixelStorei(GL_UNPACK_SKIP_ROWS, plan.getY(i));
+            glTexSubImage2D(GL_TEXTURE_2D, 0, plan.getX(i), plan.getY(i), plan.getWidth(i), plan.getHeight(i),
+                    GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, slot.getBuffer());
+        }
+        glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
+        glPixelStorei(GL_UNPACK_SKIP_PIXELS, 0);
+        glPixelStorei(GL_UNPACK_SKIP_ROWS, 0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        // Client memory is copied by the driver before glTexSubImage2D returns
+        frameMailbox.release(slot);
+
+        var fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        // Commands of this context have to be submitted before another context can wait for them
+        glFlush();
+
+        synchronized (job) {
+            if (resized) job.damage.clear();
+            for (int i = 0; i < plan.size(); i++) {
+                job.damage.add(plan.getX(i), plan.getY(i), plan.getWidth(i), plan.getHeight(i));
+            }
+            job.width = width;
+            job.height = height;
+            job.publishedTexture = job.stagingTexture;
+            job.publishedBuffer = null;
+            if (job.uploadFence != 0) glDeleteSync(job.uploadFence);
+            job.uploadFence = fence;
+            job.copyPending = true;
+        }
+
+        uploads++;
+        uploadedBytes += plan.getLastUploadBytes();
+        uploadNanos += System.nanoTime() - start;
+        return true;
+    }
+
+    private static boolean ensureStaging(Job job, int width, int height) {
+        if (job.stagingTexture != 0 && job.stagingWidth == width && job.stagingHeight == height) return false;
+
+        // A pending copy from the old texture is finished by the driver before it is actually deleted
+        deleteStaging(job);
+        var texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        var capabilities = GL.getCapabilities();
+        if (capabilities.OpenGL42 || capabilities.GL_ARB_texture_storage) {
+            glTexStorage2D(GL_TEXTURE_2D, 1, GL_RGBA8, width, height);
+        } else {
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_BGRA, GL_UNSIGNED_INT_8_8_8_8_REV, NULL);
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        job.stagingTexture = texture;
+        job.stagingWidth = width;
+        job.stagingHeight = height;
+        return true;
+    }
+
+    private static void deleteStaging(Job job) {
+        if (job.stagingTexture != 0) {
+            glDeleteTextures(job.stagingTexture);
+            job.stagingTexture = 0;
+            job.stagingWidth = 0;
+            job.stagingHeight = 0;
+        }
+        synchronized (job) {
+            if (job.closed && job.copyFence != 0) {
+                glDeleteSync(job.copyFence);
+                job.copyFence = 0;
+            }
+        }
+    }
+
+    /**
+     * Starts copying the frame the worker finished for a browser. The render thread waits for the upload on the
+     * GPU, then copies the damage out of {@link Job#getTexture()}, or uploads it from {@link Job#getBuffer()},
+     * and calls {@link #endCopy(Job)}.
+     * Must be called on the render thread.
+     *
+     * @return The regions that changed since the last copy, or null if no frame was finished
+     */
+    @Nullable MCEFDamageRegion beginCopy(Job job) {
+        RenderSystem.assertOnRenderThread();
+
+        long fence;
+        synchronized (job) {
+            if (job.closed || !job.copyPending) return null;
+            job.copyWidth = job.width;
+            job.copyHeight = job.height;
+            job.copyTexture = job.publishedTexture;
+            job.copyBuffer = job.publishedBuffer;
+            job.copyDamage.set(job.damage);
+            job.damage.clear();
+            fence = job.uploadFence;
+            job.uploadFence = 0;
+        }
+
+        if (fence != 0) {
+            // Waits on the GPU, the render thread does not block
+            glWaitSync(fence, 0, GL_TIMEOUT_IGNORED);
+            glDeleteSync(fence);
+        }
+        return job.copyDamage;
+    }
+
+    /**
+     * Hands the staging texture back to the worker once the copies were issued. Must be called on the render thread.
+     */
+    void endCopy(Job job) {
+        RenderSystem.assertOnRenderThread();
+
+        var fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        glFlush();
+
+        boolean skipped;
+        synchronized (job) {
+            if (job.copyFence != 0) glDeleteSync(job.copyFence);
+            job.copyFence = fence;
+            job.copyPending = false;
+            skipped = job.skipped;
+            job.skipped = false;
+        }
+        job.copyTexture = 0;
+        job.copyBuffer = null;
+        // A frame staged during the copy is still in the mailbox
+        if (skipped) submit(job);
+    }
+
+    /**
+     * @return The number of frames uploaded by the worker
+     */
+    public long getUploads() {
+        return uploads;
+    }
+
+    /**
+     * @return The number of bytes uploaded by the worker
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return The time the worker spent issuing uploads, in nanoseconds
+     */
+    public long getUploadNanos() {
+        return uploadNanos;
+    }
+
+    /**
+     * Stops the worker and destroys its context.
+     */
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Windows can only be destroyed on the main thread, at exit the context goes down with the process
+        if (RenderSystem.isOnRenderThread()) {
+            glfwDestroyWindow(window);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package su.asuna.mcef.listeners;
+
+import su.asuna.mcef.cef.MCEFDamageRegion;
+
+@FunctionalInterface
+public interface MCEFFrameListener {
+
+    /**
+     * Called on the render thread after a frame was uploaded to a browser texture.
+     *
+     * @param frameVersion The new frame version of the renderer
+     * @param damage       The texture regions the frame updated, only valid during the call
+     */
+    void onFrameUpdated(long frameVersion, MCEFDamageRegion damage);
+}
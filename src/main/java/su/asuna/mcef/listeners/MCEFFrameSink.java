@@ -0,0 +1,21 @@
+package su.asuna.mcef.listeners;
+
+import su.asuna.mcef.cef.MCEFDamageRegion;
+
+import java.nio.ByteBuffer;
+
+@FunctionalInterface
+public interface MCEFFrameSink {
+
+    /**
+     * Called on the thread that delivers paints after a frame was composed by a
+     * {@link su.asuna.mcef.cef.MCEFHeadlessRenderer}.
+     *
+     * @param pixels The whole frame in CEF's BGRA byte order, rows from top to bottom without padding.
+     *               Only valid during the call and must not be modified.
+     * @param width  The width of the frame
+     * @param height The height of the frame
+     * @param damage The regions the frame updated, only valid during the call
+     */
+    void onFrame(ByteBuffer pixels, int width, int height, MCEFDamageRegion damage);
+}
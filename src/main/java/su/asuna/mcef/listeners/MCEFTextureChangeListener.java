@@ -0,0 +1,15 @@
+package su.asuna.mcef.listeners;
+
+import net.minecraft.client.gui.render.TextureSetup;
+
+@FunctionalInterface
+public interface MCEFTextureChangeListener {
+
+    /**
+     * Called on the render thread when a browser texture was replaced or resized.
+     * Cached texture setups are stale from this point on.
+     *
+     * @param textureSetup The new texture setup to draw with
+     */
+    void onTextureChange(TextureSetup textureSetup);
+}
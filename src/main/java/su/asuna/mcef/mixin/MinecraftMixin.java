@@ -0,0 +1,22 @@
+package su.asuna.mcef.mixin;
+
+import net.minecraft.client.Minecraft;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+import su.asuna.mcef.MCEF;
+
+@Mixin(Minecraft.class)
+public abstract class MinecraftMixin {
+
+    /**
+     * Runs the browser uploads scheduled for this frame, see {@link su.asuna.mcef.cef.MCEFUploadScheduler}, and
+     * completes finished readbacks, see {@link su.asuna.mcef.cef.MCEFFrameReadback}.
+     */
+    @Inject(method = "runTick", at = @At("HEAD"))
+    private void mcef$runUploads(boolean advanceGameTime, CallbackInfo ci) {
+        MCEF.INSTANCE.getUploadScheduler().runFrame();
+        MCEF.INSTANCE.getFrameReadback().runFrame();
+    }
+}
@@ -0,0 +1,102 @@
+package su.asuna.mcef.utils;
+
+import org.jspecify.annotations.NullMarked;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of off-heap buffers grouped into power-of-two size classes.
+ * <p>
+ * Buffers are allocated with {@link MemoryUtil#memAlloc(int)} and must be handed back with
+ * {@link #release(ByteBuffer)} instead of being freed. Released buffers are retained up to
+ * {@value #MAX_RETAINED_BYTES} bytes in total; larger buffers, beyond the {@value #MAX_RETAINED_CLASS} size class,
+ * and buffers beyond that total are freed on release.
+ */
+@NullMarked
+public final class BufferPool {
+
+    private static final int MIN_CLASS = 12; // 4 KiB
+    private static final int MAX_CLASS = 30; // 1 GiB
+    private static final int MAX_RETAINED_CLASS = 26; // 64 MiB
+    private static final long MAX_RETAINED_BYTES = 256L * 1024 * 1024;
+    private static final AtomicLong RETAINED_BYTES = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentLinkedDeque<ByteBuffer>[] POOLS = new ConcurrentLinkedDeque[MAX_CLASS + 1];
+
+    static {
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            POOLS[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    private static int sizeClass(int bytes) {
+        var sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, 1) - 1);
+        return Math.max(MIN_CLASS, sizeClass);
+    }
+
+    /**
+     * Borrows a buffer of at least the given size. The returned buffer's position is 0 and its limit is {@code bytes}.
+     * Its contents are undefined.
+     *
+     * @param bytes The number of bytes required
+     * @return A buffer from the pool, or a newly allocated one
+     */
+    public static ByteBuffer acquire(int bytes) {
+        var sizeClass = sizeClass(bytes);
+        if (sizeClass > MAX_CLASS) {
+            throw new IllegalArgumentException("Buffer size too large: " + bytes);
+        }
+
+        var buffer = POOLS[sizeClass].pollFirst();
+        if (buffer != null) {
+            RETAINED_BYTES.addAndGet(-buffer.capacity());
+        } else {
+            buffer = MemoryUtil.memAlloc(1 << sizeClass);
+        }
+        buffer.clear().limit(bytes);
+        return buffer;
+    }
+
+    /**
+     * Hands a buffer obtained from {@link #acquire(int)} back to the pool. The buffer must not be used afterwards.
+     */
+    public static void release(ByteBuffer buffer) {
+        var capacity = buffer.capacity();
+        var sizeClass = sizeClass(capacity);
+        if (sizeClass <= MAX_RETAINED_CLASS && capacity == 1 << sizeClass) {
+            if (RETAINED_BYTES.addAndGet(capacity) <= MAX_RETAINED_BYTES) {
+                POOLS[sizeClass].offerFirst(buffer);
+                return;
+            }
+            RETAINED_BYTES.addAndGet(-capacity);
+        }
+        MemoryUtil.memFree(buffer);
+    }
+
+    /**
+     * @return The number of bytes held by retained buffers
+     */
+    public static long getRetainedBytes() {
+        return RETAINED_BYTES.get();
+    }
+
+    /**
+     * Frees every buffer retained by the pool.
+     */
+    public static void trim() {
+        for (int i = MIN_CLASS; i <= MAX_CLASS; i++) {
+            ByteBuffer buffer;
+            while ((buffer = POOLS[i].pollFirst()) != null) {
+                RETAINED_BYTES.addAndGet(-buffer.capacity());
+                MemoryUtil.memFree(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package su.asuna.mcef.utils;
+
+import org.jspecify.annotations.NullMarked;
+import org.jspecify.annotations.Nullable;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Copies pixel rectangles like {@link PixelUtils#copyRect}, splitting large rectangles into row bands
+ * that are copied in parallel on a dedicated fork-join pool.
+ * <p>
+ * A full 4K frame is 33 MB, more than a single thread can copy within a frame on most machines.
+ * Rectangles smaller than the parallel threshold are copied on the calling thread. Every copy blocks
+ * until all of its bands are done, so source buffers only have to stay valid for the duration of the call.
+ * <p>
+ * An instance accumulates the throughput of its own copies, e.g. of one browser.
+ */
+@NullMarked
+public final class PixelCopier {
+
+    private static volatile int parallelThreshold = 4 * 1024 * 1024;
+    private static volatile int minBandBytes = 1024 * 1024;
+    private static volatile int parallelism = Math.clamp(Runtime.getRuntime().availableProcessors() / 2, 1, 4);
+    private static @Nullable ForkJoinPool pool;
+
+    // Only written by the thread that copies
+    private volatile long bytesCopied;
+    private volatile long copyNanos;
+    private volatile long parallelCopies;
+
+    /**
+     * Copies a rectangle between two buffers that share the same layout, see {@link PixelUtils#copyRect}.
+     */
+    public void copyRect(long source, long destination, int stride, int x, int y, int width, int height) {
+        var start = System.nanoTime();
+        var bytes = (long) width * height * PixelUtils.BYTES_PER_PIXEL;
+
+        var bands = (int) Math.min(Math.min(parallelism, height), bytes / Math.max(1, minBandBytes));
+        if (bytes < parallelThreshold || bands < 2) {
+            PixelUtils.copyRect(source, destination, stride, x, y, width, height);
+        } else {
+            try {
+                getPool().invoke(new CopyTask(source, destination, stride, x, y, width, height, bands));
+                parallelCopies++;
+            } catch (RejectedExecutionException e) {
+                // The pool was replaced by setParallelism and shut down after it was handed to this copy
+                PixelUtils.copyRect(source, destination, stride, x, y, width, height);
+            }
+        }
+
+        bytesCopied += bytes;
+        copyNanos += System.nanoTime() - start;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = createPool(parallelism);
+        }
+        return pool;
+    }
+
+    private static ForkJoinPool createPool(int parallelism) {
+        return new ForkJoinPool(parallelism, forkJoinPool -> {
+            var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("MCEF-Copy-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    private static final class CopyTask extends RecursiveAction {
+        private final long source;
+        private final long destination;
+        private final int stride;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final int bands;
+
+        private CopyTask(long source, long destination, int stride, int x, int y, int width, int height, int bands) {
+            this.source = source;
+            this.destination = destination;
+            this.stride = stride;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.bands = bands;
+        }
+
+        @Override
+        protected void compute() {
+            if (bands <= 1) {
+                PixelUtils.copyRect(source, destination, stride, x, y, width, height);
+                return;
+            }
+
+            var half = bands / 2;
+            var rows = (int) ((long) height * half / bands);
+            invokeAll(
+                    new CopyTask(source, destination, stride, x, y, width, rows, half),
+                    new CopyTask(source, destination, stride, x, y + rows, width, height - rows, bands - half)
+            );
+        }
+    }
+
+    /**
+     * @return The number of bytes copied by this copier so far
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    /**
+     * @return The time spent copying by this copier so far, in nanoseconds
+     */
+    public long getCopyNanos() {
+        return copyNanos;
+    }
+
+    /**
+     * @return The number of copies that were split into parallel bands
+     */
+    public long getParallelCopies() {
+        return parallelCopies;
+    }
+
+    /**
+     * @return The average copy throughput of this copier in bytes per second, or 0 if nothing was copied yet
+     */
+    public double getThroughput() {
+        return copyNanos == 0 ? 0 : bytesCopied * 1_000_000_000.0 / copyNanos;
+    }
+
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Sets the size in bytes from which rectangles are copied in parallel. Smaller ones are copied on the caller.
+     */
+    public static void setParallelThreshold(int parallelThreshold) {
+        PixelCopier.parallelThreshold = Math.max(0, parallelThreshold);
+    }
+
+    public static int getMinBandBytes() {
+        return minBandBytes;
+    }
+
+    /**
+     * Sets the minimum size in bytes of a band, which limits how many threads a copy is split across.
+     */
+    public static void setMinBandBytes(int minBandBytes) {
+        PixelCopier.minBandBytes = Math.max(1, minBandBytes);
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads copies are split across. Takes effect for copies started afterwards,
+     * copies running on the previous pool finish on it before it shuts down.
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        parallelism = Math.max(1, parallelism);
+        PixelCopier.parallelism = parallelism;
+        var previous = pool;
+        if (previous != null && previous.getParallelism() != parallelism) {
+            // Swap first, so copies starting now already use the new pool
+            pool = createPool(parallelism);
+            previous.shutdown();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package su.asuna.mcef.utils;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteOrder;
+
+/**
+ * Helpers for copying 32-bit pixel data between off-heap buffers.
+ */
+public final class PixelUtils {
+
+    public static final int BYTES_PER_PIXEL = 4;
+
+    // The alpha byte is the last one of every BGRA pixel, masks select it from one pixel or a pair
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private static final int ALPHA_MASK = LITTLE_ENDIAN ? 0xFF000000 : 0x000000FF;
+    private static final long ALPHA_MASK_PAIR = LITTLE_ENDIAN ? 0xFF000000FF000000L : 0x000000FF000000FFL;
+
+    private PixelUtils() {
+    }
+
+    /**
+     * Copies a rectangle between two buffers that share the same layout.
+     * Full-width rectangles are copied with a single call, others row by row.
+     *
+     * @param source      Address of the first pixel of the source buffer
+     * @param destination Address of the first pixel of the destination buffer
+     * @param stride      Row length of both buffers in pixels
+     * @param x           The x-coordinate of the rectangle
+     * @param y           The y-coordinate of the rectangle
+     * @param width       The width of the rectangle
+     * @param height      The height of the rectangle
+     */
+    public static void copyRect(long source, long destination, int stride, int x, int y, int width, int height) {
+        var rowBytes = (long) stride * BYTES_PER_PIXEL;
+        var offset = y * rowBytes + (long) x * BYTES_PER_PIXEL;
+        var length = (long) width * BYTES_PER_PIXEL;
+
+        if (width == stride) {
+            MemoryUtil.memCopy(source + offset, destination + offset, length * height);
+            return;
+        }
+
+        for (int row = 0; row < height; row++) {
+            MemoryUtil.memCopy(source + offset, destination + offset, length);
+            offset += rowBytes;
+        }
+    }
+
+    /**
+     * Checks if every pixel of a rectangle of a BGRA buffer is fully opaque. Two pixels are tested per 64-bit
+     * word, and alpha bytes are AND-ed over a whole row before they are compared, so the inner loop has no
+     * branches. Returns at the end of the first row that contains a translucent pixel.
+     *
+     * @param address Address of the first pixel of the buffer
+     * @param stride  Row length of the buffer in pixels
+     * @param x       The x-coordinate of the rectangle
+     * @param y       The y-coordinate of the rectangle
+     * @param width   The width of the rectangle
+     * @param height  The height of the rectangle
+     */
+    public static boolean isOpaque(long address, int stride, int x, int y, int width, int height) {
+        var rowBytes = (long) stride * BYTES_PER_PIXEL;
+        var row = address + y * rowBytes + (long) x * BYTES_PER_PIXEL;
+        var pairBytes = (long) (width >>> 1) << 3;
+        var odd = (width & 1) != 0;
+
+        for (int i = 0; i < height; i++, row += rowBytes) {
+            var alpha = ALPHA_MASK_PAIR;
+            var end = row + pairBytes;
+            for (long pixel = row; pixel < end; pixel += 8) {
+                alpha &= MemoryUtil.memGetLong(pixel);
+            }
+            if (odd && (MemoryUtil.memGetInt(end) & ALPHA_MASK) != ALPHA_MASK) return false;
+            if ((alpha & ALPHA_MASK_PAIR) != ALPHA_MASK_PAIR) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,49 @@
+package su.asuna.mcef.cef;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures the bytes a call allocates on the calling thread, using the HotSpot per thread counters.
+ */
+final class Allocations {
+
+    private static final int WARM_UP_CALLS = 50_000;
+    private static final int MEASURED_CALLS = 10_000;
+    private static final int ATTEMPTS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Allocations() {
+    }
+
+    /**
+     * Asserts that a call no longer allocates once it is warmed up.
+     * <p>
+     * The call is measured a few times, a recompilation may allocate in between, e.g. while a deoptimized
+     * frame runs in the interpreter. A call that allocates does so in every attempt.
+     */
+    static void assertNoAllocation(String name, Runnable call) {
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+        for (int i = 0; i < WARM_UP_CALLS; i++) {
+            call.run();
+        }
+
+        long allocated = 0;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            allocated = measure(call);
+            if (allocated == 0) return;
+        }
+        assertEquals(0, allocated, name + " allocated " + allocated + " bytes in " + MEASURED_CALLS + " calls");
+    }
+
+    private static long measure(Runnable call) {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        return THREADS.getCurrentThreadAllocatedBytes() - before;
+    }
+}
@@ -0,0 +1,110 @@
+package su.asuna.mcef.cef;
+
+import org.cef.event.CefMouseEvent;
+import org.junit.jupiter.api.Test;
+import org.lwjgl.system.MemoryUtil;
+
+import java.awt.*;
+import java.lang.reflect.Field;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Guards the paths that run for every paint or input event against allocating again.
+ */
+class MCEFAllocationTest {
+
+    @Test
+    void sendMouseMoveDoesNotAllocate() throws ReflectiveOperationException {
+        var browser = MouseMoveBrowser.create();
+        int[] position = {0};
+        Allocations.assertNoAllocation("MCEFBrowser.sendMouseMove", () -> {
+            int p = position[0]++ & 1023;
+            browser.sendMouseMove(p, 1023 - p);
+        });
+    }
+
+    @Test
+    void paintPlannerDoesNotAllocate() {
+        var planner = new MCEFPaintPlanner();
+        Rectangle[] dirtyRects = {
+                new Rectangle(0, 0, 64, 64),
+                new Rectangle(32, 32, 128, 16),
+                new Rectangle(900, 500, 300, 200),
+                new Rectangle(0, 1060, 1920, 20),
+                new Rectangle(1800, -10, 200, 50)
+        };
+        Allocations.assertNoAllocation("MCEFPaintPlanner.plan",
+                () -> planner.plan(dirtyRects, 1920, 1080));
+    }
+
+    @Test
+    void damageRegionDoesNotAllocate() {
+        var region = new MCEFDamageRegion();
+        var copy = new MCEFDamageRegion();
+        Allocations.assertNoAllocation("MCEFDamageRegion.add/set", () -> {
+            region.clear();
+            // More rectangles than the region holds, so it collapses once
+            for (int i = 0; i < MCEFDamageRegion.MAX_RECTS + 4; i++) {
+                region.add(i * 10, i * 5, 8, 4);
+            }
+            copy.set(region);
+            copy.add(region);
+        });
+    }
+
+    @Test
+    void dmabufAttributesDoNotAllocate() {
+        var attribs = MemoryUtil.memAllocInt(MCEFRenderer.MAX_DMABUF_ATTRIBS);
+        try {
+            int[] fds = {40, 41};
+            int[] strides = {7680, 3840};
+            long[] offsets = {0, 8294400};
+            Allocations.assertNoAllocation("MCEFRenderer.putDmabufAttribs", () -> {
+                var written = MCEFRenderer.putDmabufAttribs(attribs, 1920, 1080, CefConstants.DRM_FORMAT_ARGB8888,
+                        2, fds, strides, offsets, 0x0100000000000002L, true);
+                assertTrue(written);
+            });
+        } finally {
+            MemoryUtil.memFree(attribs);
+        }
+    }
+
+    /**
+     * A browser that drops its mouse events instead of handing them to CEF.
+     * <p>
+     * Created without running the constructors, a browser cannot be constructed without CEF and Minecraft.
+     * Only the fields read when moving the mouse are initialized.
+     */
+    private static final class MouseMoveBrowser extends MCEFBrowser {
+
+        private MouseMoveBrowser() {
+            super(null, "", false, null);
+            throw new AssertionError();
+        }
+
+        static MouseMoveBrowser create() throws ReflectiveOperationException {
+            var unsafeField = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            var unsafe = unsafeField.get(null);
+            var browser = (MouseMoveBrowser) unsafe.getClass()
+                    .getMethod("allocateInstance", Class.class)
+                    .invoke(unsafe, MouseMoveBrowser.class);
+
+            set(browser, "mouseMoveEvent", new CefMouseEvent(CefMouseEvent.MOUSE_MOVED, 0, 0, 0, 0, 0));
+            set(browser, "dragPoint", new Point());
+            set(browser, "dragContext", new MCEFDragContext());
+            return browser;
+        }
+
+        private static void set(MCEFBrowser browser, String name, Object value) throws ReflectiveOperationException {
+            Field field = MCEFBrowser.class.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(browser, value);
+        }
+
+        @Override
+        public void sendMouseEvent(CefMouseEvent event) {
+        }
+    }
+}